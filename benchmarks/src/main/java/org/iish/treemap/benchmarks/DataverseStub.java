@@ -0,0 +1,202 @@
+package org.iish.treemap.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the two Dataverse APIs used by the application:
+ * the dataset metadata API listing the files of a dataset, and the access API serving a single file.
+ * Every PID resolves to the same dataset with the given generated Excel files.
+ */
+public class DataverseStub {
+    private static final String API_DATASETS_PERSISTENT_ID = "/api/datasets/:persistentId/";
+    private static final String API_ACCESS_DATAFILE = "/api/access/datafile/";
+    private static final String XLSX_CONTENT_TYPE =
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private final Map<Long, byte[]> files = new LinkedHashMap<>();
+    private final long latencyMs;
+    private final AtomicLong noRequests = new AtomicLong();
+    private HttpServer server;
+
+    /**
+     * Creates a stub serving Excel files written by the given fixture.
+     * Every file is generated with a different number of rows, so that the files differ.
+     *
+     * @param fixture   The fixture writing the Excel files.
+     * @param noFiles   The number of files.
+     * @param rows      The number of rows of the first file.
+     * @param latencyMs The simulated latency of every request in milliseconds.
+     * @throws IOException On failure to write the Excel files.
+     */
+    public DataverseStub(XlsxFixture fixture, int noFiles, int rows, long latencyMs) throws IOException {
+        this.latencyMs = latencyMs;
+
+        Path file = Files.createTempFile("labour", ".xlsx");
+        try {
+            for (int i = 0; i < noFiles; i++) {
+                fixture.setRows(rows + i);
+                fixture.write(file);
+                files.put(1000L + i, Files.readAllBytes(file));
+            }
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Returns the ids of the files served.
+     *
+     * @return The file ids.
+     */
+    public Iterable<Long> getFileIds() {
+        return files.keySet();
+    }
+
+    /**
+     * Returns the number of requests served so far.
+     *
+     * @return The number of requests.
+     */
+    public long getNoRequests() {
+        return noRequests.get();
+    }
+
+    /**
+     * Starts the stub on a random free port on the loopback interface.
+     *
+     * @return The base URL of the stub.
+     * @throws IOException On failure to start the server.
+     */
+    public String start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(API_DATASETS_PERSISTENT_ID, this::handleDataset);
+        server.createContext(API_ACCESS_DATAFILE, this::handleDatafile);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the stub.
+     */
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+    }
+
+    /**
+     * Serves the metadata of the dataset with all files, with an entity tag to revalidate it with.
+     * The files are preceded by a block of descriptive metadata, as in the actual API.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException On failure to respond.
+     */
+    private void handleDataset(HttpExchange exchange) throws IOException {
+        String eTag = "\"files-" + files.size() + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            respond(exchange, 304, "application/json", new byte[0]);
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"data\":{\"latestVersion\":{");
+        json.append("\"versionNumber\":1,\"versionMinorNumber\":0,\"versionState\":\"RELEASED\",");
+        json.append("\"metadataBlocks\":{\"citation\":{\"fields\":[");
+        for (int i = 0; i < 100; i++)
+            json.append((i > 0) ? "," : "").append("{\"typeName\":\"field").append(i)
+                    .append("\",\"multiple\":false,\"value\":{\"text\":\"Description ").append(i).append("\"}}");
+        json.append("]}},\"files\":[");
+        for (Long id : files.keySet()) {
+            if (json.charAt(json.length() - 1) != '[')
+                json.append(',');
+            json.append("{\"dataFile\":{\"id\":").append(id)
+                    .append(",\"filename\":\"labour-").append(id).append(".xlsx\"")
+                    .append(",\"contentType\":\"").append(XLSX_CONTENT_TYPE).append("\"")
+                    .append(",\"filesize\":").append(files.get(id).length)
+                    .append(",\"checksum\":{\"type\":\"MD5\",\"value\":\"").append(md5(files.get(id))).append("\"}}}");
+        }
+        json.append("]}}}");
+
+        respond(exchange, 200, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes the MD5 checksum of the given file, as listed by Dataverse.
+     *
+     * @param file The file.
+     * @return The checksum in hexadecimal.
+     */
+    private static String md5(byte[] file) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(file))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serves the requested file.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException On failure to respond.
+     */
+    private void handleDatafile(HttpExchange exchange) throws IOException {
+        String id = exchange.getRequestURI().getPath().substring(API_ACCESS_DATAFILE.length());
+        byte[] file = id.matches("\\d+") ? files.get(Long.parseLong(id)) : null;
+
+        if (file != null)
+            respond(exchange, 200, XLSX_CONTENT_TYPE, file);
+        else
+            respond(exchange, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the response after the simulated latency.
+     *
+     * @param exchange    The HTTP exchange.
+     * @param status      The status code.
+     * @param contentType The content type.
+     * @param body        The body.
+     * @throws IOException On failure to respond.
+     */
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        noRequests.incrementAndGet();
+        try {
+            if (latencyMs > 0)
+                Thread.sleep(latencyMs);
+
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, (body.length > 0) ? body.length : -1);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            exchange.close();
+        }
+    }
+}
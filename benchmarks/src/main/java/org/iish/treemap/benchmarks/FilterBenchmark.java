@@ -0,0 +1,114 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.labour.DefaultLabourFilter;
+import org.iish.treemap.labour.TimePeriods;
+import org.iish.treemap.model.filter.MaximumTabularDataFilter;
+import org.iish.treemap.model.filter.MinimalTabularDataFilter;
+import org.iish.treemap.model.filter.TabularDataFilter;
+import org.iish.treemap.model.filter.ValuesTabularDataFilter;
+import org.iish.treemap.model.tabular.TabularData;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the filters applied to the dataset on every treemap request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class FilterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FilterState {
+        public TabularDataFilter defaultLabourFilter;
+        public TabularDataFilter valuesFilter;
+        public TabularDataFilter minimalFilter;
+        public TabularDataFilter maximumFilter;
+
+        /**
+         * Creates the filters.
+         *
+         * @param dataset The dataset.
+         */
+        @Setup(Level.Trial)
+        public void setUpFilters(LabourDatasetState dataset) {
+            String yearColumn = dataset.config.labour.xlsx.columns.year;
+
+            defaultLabourFilter = new DefaultLabourFilter(yearColumn, dataset.config.labour.xlsx.columns.country,
+                    dataset.injector.getInstance(TimePeriods.class));
+            valuesFilter = new ValuesTabularDataFilter(dataset.config.labour.xlsx.virtualColumns.continent,
+                    new HashSet<>(Arrays.asList("Africa", "Asia")), false);
+            minimalFilter = new MinimalTabularDataFilter(yearColumn, new BigDecimal(1700));
+            maximumFilter = new MaximumTabularDataFilter(yearColumn, new BigDecimal(1900));
+        }
+    }
+
+    /**
+     * Applies the default labour filter.
+     *
+     * @param dataset The dataset.
+     * @param filters The filters.
+     * @return The filtered dataset.
+     */
+    @Benchmark
+    public TabularData defaultLabourFilter(LabourDatasetState dataset, FilterState filters) {
+        return filters.defaultLabourFilter.filter(dataset.data);
+    }
+
+    /**
+     * Applies a filter on the values of a column.
+     *
+     * @param dataset The dataset.
+     * @param filters The filters.
+     * @return The filtered dataset.
+     */
+    @Benchmark
+    public TabularData valuesFilter(LabourDatasetState dataset, FilterState filters) {
+        return filters.valuesFilter.filter(dataset.data);
+    }
+
+    /**
+     * Applies a minimum filter on the year.
+     *
+     * @param dataset The dataset.
+     * @param filters The filters.
+     * @return The filtered dataset.
+     */
+    @Benchmark
+    public TabularData minimalFilter(LabourDatasetState dataset, FilterState filters) {
+        return filters.minimalFilter.filter(dataset.data);
+    }
+
+    /**
+     * Applies a maximum filter on the year.
+     *
+     * @param dataset The dataset.
+     * @param filters The filters.
+     * @return The filtered dataset.
+     */
+    @Benchmark
+    public TabularData maximumFilter(LabourDatasetState dataset, FilterState filters) {
+        return filters.maximumFilter.filter(dataset.data);
+    }
+
+    /**
+     * Applies a chain of filters, as a request with a year range and a continent does.
+     *
+     * @param dataset The dataset.
+     * @param filters The filters.
+     * @return The filtered dataset.
+     */
+    @Benchmark
+    public TabularData filterChain(LabourDatasetState dataset, FilterState filters) {
+        TabularData data = filters.defaultLabourFilter.filter(dataset.data);
+        data = filters.minimalFilter.filter(data);
+        data = filters.maximumFilter.filter(data);
+        return filters.valuesFilter.filter(data);
+    }
+}
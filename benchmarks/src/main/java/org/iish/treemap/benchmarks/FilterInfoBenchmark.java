@@ -0,0 +1,42 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.labour.LabourFilterInfoBuilder;
+import org.iish.treemap.labour.TimePeriods;
+import org.iish.treemap.model.treemap.FilterInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks collecting the filter information returned with every treemap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class FilterInfoBenchmark {
+
+    /**
+     * Collects the filter information the way the labour treemap endpoint does.
+     *
+     * @param dataset The dataset.
+     * @return The filter information.
+     */
+    @Benchmark
+    public List<FilterInfo> filterInfo(LabourDatasetState dataset) {
+        LabourFilterInfoBuilder filterInfoBuilder = new LabourFilterInfoBuilder(dataset.data);
+        filterInfoBuilder.setColumnsAllValues(
+                Collections.singleton(dataset.config.labour.xlsx.virtualColumns.bmyear));
+        filterInfoBuilder.setLabels(dataset.config.labour.treemap.labels);
+        filterInfoBuilder.setTimePeriods(dataset.injector.getInstance(TimePeriods.class));
+
+        return filterInfoBuilder.getFilterInfo(Arrays.asList(
+                dataset.config.labour.xlsx.virtualColumns.bmyear,
+                dataset.config.labour.xlsx.virtualColumns.continent,
+                dataset.config.labour.xlsx.columns.country));
+    }
+}
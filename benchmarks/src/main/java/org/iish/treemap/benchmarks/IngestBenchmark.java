@@ -0,0 +1,196 @@
+package org.iish.treemap.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.labour.LabourRelations;
+import org.iish.treemap.labour.LabourRelationsXlsxReader;
+import org.iish.treemap.labour.TimePeriods;
+import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.XlsxException;
+import org.iish.treemap.util.XlsxReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Benchmarks reading a labour relations Excel file, split in the SAX parsing of the sheet,
+ * the derivation of the virtual columns from the parsed rows, and both together.
+ * Besides ops/s (files/s), every benchmark reports the number of rows read per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class IngestBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FixtureState {
+        @Param({"10000", "100000", "1000000"})
+        public int rows;
+
+        @Param({"0.1"})
+        public double multiples;
+
+        @Param({"0.2"})
+        public double naDensity;
+
+        @Param({"1.0", "0.0"})
+        public double sharedStrings;
+
+        public Config config;
+        public LabourRelations labourRelations;
+        public TimePeriods timePeriods;
+        public Path file;
+
+        /**
+         * Writes the Excel file.
+         *
+         * @throws IOException On failure to write the Excel file.
+         */
+        @Setup(Level.Trial)
+        public void setUpFixture() throws IOException {
+            config = LabourDatasetState.loadConfig();
+            Injector injector = Guice.createInjector(binder -> binder.bind(Config.class).toInstance(config));
+            labourRelations = injector.getInstance(LabourRelations.class);
+            timePeriods = injector.getInstance(TimePeriods.class);
+
+            XlsxFixture fixture = new XlsxFixture(config, timePeriods);
+            fixture.setRows(rows);
+            fixture.setMultiples(multiples);
+            fixture.setNaDensity(naDensity);
+            fixture.setSharedStrings(sharedStrings);
+
+            file = Files.createTempFile("labour", ".xlsx");
+            fixture.write(file);
+        }
+
+        /**
+         * Removes the Excel file.
+         *
+         * @throws IOException On failure to remove the Excel file.
+         */
+        @TearDown(Level.Trial)
+        public void tearDownFixture() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ParsedRowsState {
+        public List<XlsxReader.Row> rows;
+
+        /**
+         * Parses the rows of the Excel file once, to replay them for the derivation of the virtual columns.
+         *
+         * @param fixture The Excel file.
+         * @throws XlsxException On failure to read the Excel file.
+         */
+        @Setup(Level.Trial)
+        public void setUpRows(FixtureState fixture) throws XlsxException {
+            rows = new ArrayList<>();
+            new XlsxReader(fixture.file.toFile()).read(rows::add);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RowCounter {
+        public long rows;
+
+        /**
+         * Resets the number of rows read before every iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    /**
+     * Only parses the sheet of the Excel file into rows.
+     *
+     * @param fixture   The Excel file.
+     * @param counter   The number of rows read.
+     * @param blackhole Consumes the rows.
+     * @throws XlsxException On failure to read the Excel file.
+     */
+    @Benchmark
+    public void parse(FixtureState fixture, RowCounter counter, Blackhole blackhole) throws XlsxException {
+        new XlsxReader(fixture.file.toFile()).read(row -> {
+            blackhole.consume(row);
+            counter.rows++;
+        });
+    }
+
+    /**
+     * Only derives the virtual columns from rows that have already been parsed.
+     *
+     * @param fixture The Excel file.
+     * @param parsed  The parsed rows.
+     * @param counter The number of rows read.
+     * @return The data set.
+     * @throws XlsxException Never, as the rows are replayed from memory.
+     */
+    @Benchmark
+    public TabularData derive(FixtureState fixture, ParsedRowsState parsed, RowCounter counter)
+            throws XlsxException {
+        TabularData data = new LabourRelationsXlsxReader(fixture.config, fixture.labourRelations,
+                fixture.timePeriods, new ReplayingXlsxReader(fixture.file.toFile(), parsed.rows)).getData();
+        counter.rows += parsed.rows.size();
+        return data;
+    }
+
+    /**
+     * Reads the Excel file into a data set, as is done when a dataset is loaded.
+     *
+     * @param fixture The Excel file.
+     * @param counter The number of rows read.
+     * @return The data set.
+     * @throws XlsxException On failure to read the Excel file.
+     */
+    @Benchmark
+    public TabularData getData(FixtureState fixture, RowCounter counter) throws XlsxException {
+        TabularData data = new LabourRelationsXlsxReader(fixture.config, fixture.labourRelations,
+                fixture.timePeriods, fixture.file.toFile()).getData();
+        counter.rows += fixture.rows + 3;
+        return data;
+    }
+
+    /**
+     * An XLSX reader that replays rows that have already been parsed.
+     */
+    private static class ReplayingXlsxReader extends XlsxReader {
+        private final List<Row> rows;
+
+        /**
+         * Creates a reader replaying the given rows.
+         *
+         * @param xlsxFile The Excel file the rows were parsed from.
+         * @param rows     The parsed rows.
+         */
+        private ReplayingXlsxReader(File xlsxFile, List<Row> rows) {
+            super(xlsxFile);
+            this.rows = rows;
+        }
+
+        /**
+         * Replays the parsed rows.
+         *
+         * @param rowConsumer The consumer to send the rows to.
+         */
+        @Override
+        public void read(Consumer<Row> rowConsumer) {
+            rows.forEach(rowConsumer);
+        }
+    }
+}
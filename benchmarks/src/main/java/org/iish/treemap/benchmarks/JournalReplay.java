@@ -0,0 +1,167 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.util.SlowRequestJournal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Replays the requests of a slow request journal against a running instance, one after the other,
+ * and compares the time of each replayed request with the time recorded in the journal.
+ * Every request is sent a number of times: the first time shows the cold time, unless the response was
+ * already cached, later times are mostly served from the response cache of the instance.
+ * <p>
+ * Usage: JournalReplay journal [option=value]..., with the options:
+ * <ul>
+ * <li>url: the base URL of the instance (default http://localhost:8080)</li>
+ * <li>repeat: the number of times to send each request (default 3)</li>
+ * <li>path: only replay requests with this path (optional)</li>
+ * <li>limit: the maximum number of requests to replay (optional)</li>
+ * </ul>
+ */
+public class JournalReplay {
+    private final String baseUrl;
+    private final int repeat;
+    private final HttpClient client;
+
+    /**
+     * Creates a replay against the given instance.
+     *
+     * @param baseUrl The base URL of the instance.
+     * @param repeat  The number of times to send each request.
+     */
+    private JournalReplay(String baseUrl, int repeat) {
+        this.baseUrl = baseUrl;
+        this.repeat = repeat;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Replays the journal.
+     *
+     * @param args The journal followed by the options, as option=value.
+     * @throws Exception On failure to replay the journal.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: " + JournalReplay.class.getName() +
+                    " journal [url=http://localhost:8080] [repeat=3] [path=/labour/treemap] [limit=n]");
+            System.exit(1);
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] parts = args[i].split("=", 2);
+            options.put(parts[0], (parts.length > 1) ? parts[1] : "");
+        }
+
+        String path = options.get("path");
+        List<SlowRequestJournal.Entry> entries = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)
+                .stream()
+                .filter(line -> !line.trim().isEmpty())
+                .map(SlowRequestJournal::parse)
+                .filter(entry -> (path == null) || entry.getPath().equals(path))
+                .limit(Long.parseLong(options.getOrDefault("limit", String.valueOf(Long.MAX_VALUE))))
+                .collect(Collectors.toList());
+
+        JournalReplay replay = new JournalReplay(options.getOrDefault("url", "http://localhost:8080"),
+                Integer.parseInt(options.getOrDefault("repeat", "3")));
+        replay.run(entries);
+    }
+
+    /**
+     * Replays the given entries and reports the times.
+     *
+     * @param entries The journal entries.
+     * @throws IOException          On failure to send a request.
+     * @throws InterruptedException When interrupted.
+     */
+    private void run(List<SlowRequestJournal.Entry> entries) throws IOException, InterruptedException {
+        System.out.printf("%-4s %-19s %-22s %6s %10s %10s %10s %8s  %s%n",
+                "#", "recorded", "path", "status", "journal ms", "first ms", "best ms", "ratio", "slowest stage");
+
+        double totalJournal = 0, totalFirst = 0;
+        int no = 0;
+        for (SlowRequestJournal.Entry entry : entries) {
+            no++;
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + getPathAndQuery(entry)))
+                    .header("Accept-Encoding", "gzip")
+                    .timeout(Duration.ofMinutes(5))
+                    .build();
+
+            int status = 0;
+            double first = 0, best = Double.MAX_VALUE;
+            for (int i = 0; i < repeat; i++) {
+                long start = System.nanoTime();
+                status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                double ms = (System.nanoTime() - start) / 1e6;
+
+                if (i == 0)
+                    first = ms;
+                best = Math.min(best, ms);
+            }
+
+            totalJournal += entry.getTotalMs();
+            totalFirst += first;
+
+            System.out.printf("%-4d %-19.19s %-22s %6s %10.1f %10.1f %10.1f %8.2f  %s%n",
+                    no, entry.getTime(), entry.getPath(), (status == entry.getStatus())
+                            ? String.valueOf(status) : entry.getStatus() + ">" + status,
+                    entry.getTotalMs(), first, best, first / entry.getTotalMs(), getSlowestStage(entry));
+        }
+
+        if (no > 0)
+            System.out.printf("%nReplayed %d requests: %.1f ms recorded, %.1f ms on the first replay (ratio %.2f)%n",
+                    no, totalJournal, totalFirst, totalFirst / totalJournal);
+    }
+
+    /**
+     * Returns the path and query string of the given entry.
+     *
+     * @param entry The journal entry.
+     * @return The path and query string.
+     */
+    private static String getPathAndQuery(SlowRequestJournal.Entry entry) {
+        String query = entry.getParams().entrySet().stream()
+                .flatMap(param -> param.getValue().stream()
+                        .map(value -> encode(param.getKey()) + "=" + encode(value)))
+                .collect(Collectors.joining("&"));
+        return query.isEmpty() ? entry.getPath() : entry.getPath() + "?" + query;
+    }
+
+    /**
+     * Returns the stage of the given entry the most time was spent in.
+     *
+     * @param entry The journal entry.
+     * @return The stage with its time, or an empty string if no stages were recorded.
+     */
+    private static String getSlowestStage(SlowRequestJournal.Entry entry) {
+        return entry.getStagesMs().entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(stage -> String.format("%s (%.1f ms)", stage.getKey(), stage.getValue()))
+                .orElse("");
+    }
+
+    /**
+     * URL encodes the given value.
+     *
+     * @param value The value.
+     * @return The encoded value.
+     */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
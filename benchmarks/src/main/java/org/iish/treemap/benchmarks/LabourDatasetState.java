@@ -0,0 +1,60 @@
+package org.iish.treemap.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.labour.LabourRelations;
+import org.iish.treemap.labour.SyntheticLabourDataset;
+import org.iish.treemap.labour.TimePeriods;
+import org.iish.treemap.model.tabular.TabularData;
+import org.openjdk.jmh.annotations.*;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A synthetic labour relations dataset, shared by all benchmarks.
+ */
+@State(Scope.Benchmark)
+public class LabourDatasetState {
+    @Param({"10000", "100000", "1000000", "5000000"})
+    public int rows;
+
+    @Param({"50", "250"})
+    public int countries;
+
+    public Config config;
+    public Injector injector;
+    public TabularData data;
+
+    /**
+     * Loads the configuration and generates the dataset.
+     *
+     * @throws IOException On failure to load the configuration.
+     */
+    @Setup(Level.Trial)
+    public void setUpDataset() throws IOException {
+        config = loadConfig();
+        injector = Guice.createInjector(binder -> binder.bind(Config.class).toInstance(config));
+
+        SyntheticLabourDataset generator = new SyntheticLabourDataset(config,
+                injector.getInstance(LabourRelations.class), injector.getInstance(TimePeriods.class));
+        generator.setRows(rows);
+        generator.setCountries(countries);
+        data = generator.generate();
+    }
+
+    /**
+     * Loads the configuration packaged with the application.
+     *
+     * @return The configuration.
+     * @throws IOException On failure to load the configuration.
+     */
+    static Config loadConfig() throws IOException {
+        try (InputStream inputStream = LabourDatasetState.class.getResourceAsStream("/config.yaml")) {
+            return (Config) new Yaml(new Constructor(Config.class)).load(inputStream);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package org.iish.treemap.benchmarks;
+
+import com.google.inject.Guice;
+import org.HdrHistogram.Histogram;
+import org.iish.treemap.Application;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.labour.TimePeriods;
+import spark.Spark;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * An end-to-end load test: starts the application on a random port, backed by a local Dataverse stub,
+ * and replays a mix of requests from many concurrent virtual users.
+ * Reports the throughput, the latency distribution and the hit ratio of the response cache for each type of request.
+ * As the responses are cached by their request, the requests are varied by default,
+ * so that the latencies measure building the responses rather than looking them up in the response cache.
+ * <p>
+ * Usage: LoadTest [option=value]..., with the options:
+ * <ul>
+ * <li>users: the number of concurrent virtual users (default 32)</li>
+ * <li>warmup: the warmup time in seconds, not measured (default 10)</li>
+ * <li>duration: the measured time in seconds (default 60)</li>
+ * <li>mix: the relative weights of the requests (default files:1,columns:2,treemap:7)</li>
+ * <li>files: the number of Excel files in the stubbed dataset (default 2)</li>
+ * <li>rows: the number of rows of each Excel file (default 100000)</li>
+ * <li>stubLatency: the latency of the Dataverse stub in milliseconds (default 0)</li>
+ * <li>cache: how the requests relate to the response cache (default random): 'random' filters each treemap
+ * on one to three random countries, so that most treemap requests miss the response cache;
+ * 'bypass' adds a unique parameter to every request, so that every request misses the response cache;
+ * 'fixed' only requests a fixed set of paths, so that almost every request hits the response cache after warmup</li>
+ * <li>dataset: a serialized standard dataset to load, which is then requested as well (optional)</li>
+ * <li>hgrm: a directory to write the full latency histograms to (optional)</li>
+ * </ul>
+ */
+public class LoadTest {
+    private static final String[][] HIERARCHIES = {
+            {"txt1.1"},
+            {"txt1.1", "txt1.2", "txt1.3.ext"},
+            {"continent", "txt1.1", "txt1.2"},
+            {"txt1.1", "txt2.1"},
+            {"bmyear", "continent", "country", "txt1.1"}
+    };
+
+    private final Map<String, String> options;
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+    private final Map<String, List<String>> paths = new LinkedHashMap<>();
+    private final List<VirtualUser> users = new ArrayList<>();
+    private final AtomicLong noRequests = new AtomicLong();
+    private final String cacheMode;
+
+    private HttpClient client;
+    private String baseUrl;
+    private List<String> countries;
+    private volatile boolean measuring;
+    private volatile boolean running;
+
+    /**
+     * Creates a load test with the given options.
+     *
+     * @param options The options.
+     */
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        for (String weight : getOption("mix", "files:1,columns:2,treemap:7").split(",")) {
+            String[] parts = weight.split(":");
+            mix.put(parts[0], Integer.parseInt(parts[1]));
+        }
+
+        this.cacheMode = getOption("cache", "random");
+        if (!Arrays.asList("random", "bypass", "fixed").contains(cacheMode))
+            throw new IllegalArgumentException("Unknown cache mode '" + cacheMode + "'!");
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The options, as option=value.
+     * @throws Exception On failure to run the load test.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            options.put(parts[0], (parts.length > 1) ? parts[1] : "");
+        }
+
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    /**
+     * Starts the stub and the application, replays the requests and reports the results.
+     *
+     * @throws Exception On failure to run the load test.
+     */
+    private void run() throws Exception {
+        int noUsers = Integer.parseInt(getOption("users", "32"));
+        long warmup = Long.parseLong(getOption("warmup", "10"));
+        long duration = Long.parseLong(getOption("duration", "60"));
+
+        Config config = LabourDatasetState.loadConfig();
+        countries = new ArrayList<>(new TreeSet<>(config.countriesToContinent.keySet()));
+        XlsxFixture fixture = new XlsxFixture(config, Guice.createInjector(
+                binder -> binder.bind(Config.class).toInstance(config)).getInstance(TimePeriods.class));
+
+        System.out.println("Generating the stubbed Dataverse dataset...");
+        DataverseStub stub = new DataverseStub(fixture, Integer.parseInt(getOption("files", "2")),
+                Integer.parseInt(getOption("rows", "100000")), Long.parseLong(getOption("stubLatency", "0")));
+        String stubUrl = stub.start();
+
+        System.out.println("Starting the application...");
+        startApplication(stubUrl);
+        createPaths(stub);
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        running = true;
+        for (int i = 0; i < noUsers; i++) {
+            VirtualUser user = new VirtualUser();
+            users.add(user);
+            user.start();
+        }
+
+        System.out.printf("Warming up for %d seconds with %d virtual users, with %s requests...%n",
+                warmup, noUsers, cacheMode);
+        TimeUnit.SECONDS.sleep(warmup);
+
+        System.out.printf("Measuring for %d seconds...%n", duration);
+        long start = System.nanoTime();
+        measuring = true;
+        TimeUnit.SECONDS.sleep(duration);
+        measuring = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        running = false;
+        for (VirtualUser user : users)
+            user.join();
+
+        report(seconds, stub);
+
+        Spark.stop();
+        stub.stop();
+    }
+
+    /**
+     * Starts the application on a random free port, using the Dataverse stub.
+     *
+     * @param stubUrl The base URL of the Dataverse stub.
+     * @throws IOException On failure to write the configuration.
+     */
+    private void startApplication(String stubUrl) throws IOException {
+        String configYaml;
+        try (InputStream inputStream = LoadTest.class.getResourceAsStream("/config.yaml")) {
+            configYaml = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        Path configFile = Files.createTempFile("config", ".yaml");
+        configFile.toFile().deleteOnExit();
+        Files.write(configFile, configYaml
+                .replaceFirst("(dataverse:\\s*\\n\\s*url:)\\s*\\S+", "$1 " + stubUrl)
+                .getBytes(StandardCharsets.UTF_8));
+
+        String dataset = getOption("dataset", null);
+        System.setProperty("treemap.config", configFile.toString());
+        System.setProperty("treemap.dataset", (dataset != null) ? dataset : configFile + ".ser");
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Spark.port(port);
+        new Application().init();
+        Spark.awaitInitialization();
+
+        baseUrl = "http://localhost:" + port;
+    }
+
+    /**
+     * Creates the paths to request for each type of request.
+     *
+     * @param stub The Dataverse stub.
+     */
+    private void createPaths(DataverseStub stub) {
+        List<String> fileIds = new ArrayList<>();
+        stub.getFileIds().forEach(id -> fileIds.add(String.valueOf(id)));
+        if (options.containsKey("dataset"))
+            fileIds.add("dataset");
+
+        paths.put("files", Collections.singletonList("/labour/files?pid=10622/STUB"));
+
+        paths.put("columns", fileIds.stream()
+                .map(fileId -> "/labour/columns?file=" + fileId)
+                .collect(Collectors.toList()));
+
+        List<String> treemapPaths = new ArrayList<>();
+        for (String fileId : fileIds) {
+            for (String[] hierarchy : HIERARCHIES) {
+                for (String extra : Arrays.asList("", "&multiples=show", "&totalPopulation=show",
+                        "&filter:continent=Europe&filter:continent=Asia", "&min:year=1700&max:year=1900")) {
+                    treemapPaths.add("/labour/treemap?file=" + fileId + "&size=total&filterInfo=bmyear" +
+                            "&filterInfo=continent&filterInfo=country" +
+                            Arrays.stream(hierarchy).map(column -> "&hierarchy=" + column)
+                                    .collect(Collectors.joining()) + extra);
+                }
+            }
+        }
+        paths.put("treemap", treemapPaths);
+    }
+
+    /**
+     * Returns a path to request for the given type of request, varied according to the cache mode.
+     * The time spent in each stage is requested as well, to find out whether the response cache was hit.
+     *
+     * @param type   The type of request.
+     * @param random The random generator of the virtual user.
+     * @return The path.
+     */
+    private String getPath(String type, Random random) {
+        List<String> typePaths = paths.get(type);
+        StringBuilder path = new StringBuilder(typePaths.get(random.nextInt(typePaths.size())));
+        path.append("&profile=true");
+
+        if (cacheMode.equals("random") && type.equals("treemap")) {
+            int noCountries = random.nextInt(3) + 1;
+            for (int i = 0; i < noCountries; i++)
+                path.append("&filter:country=").append(URLEncoder.encode(
+                        countries.get(random.nextInt(countries.size())), StandardCharsets.UTF_8));
+        }
+        else if (cacheMode.equals("bypass")) {
+            path.append("&nocache=").append(noRequests.incrementAndGet());
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * Reports the throughput, latencies and response cache hit ratio for each type of request.
+     *
+     * @param seconds The measured time in seconds.
+     * @param stub    The Dataverse stub.
+     * @throws IOException On failure to write the histograms.
+     */
+    private void report(double seconds, DataverseStub stub) throws IOException {
+        Map<String, Histogram> histograms = new LinkedHashMap<>();
+        Map<String, Long> errors = new LinkedHashMap<>();
+        Map<String, Long> hits = new LinkedHashMap<>();
+        Map<String, Long> lookups = new LinkedHashMap<>();
+        Histogram all = new Histogram(3);
+        long allErrors = 0, allHits = 0, allLookups = 0;
+
+        for (String type : mix.keySet()) {
+            Histogram histogram = new Histogram(3);
+            long noErrors = 0, noHits = 0, noLookups = 0;
+            for (VirtualUser user : users) {
+                histogram.add(user.histograms.get(type));
+                noErrors += user.errors.get(type);
+                noHits += user.hits.get(type);
+                noLookups += user.lookups.get(type);
+            }
+            histograms.put(type, histogram);
+            errors.put(type, noErrors);
+            hits.put(type, noHits);
+            lookups.put(type, noLookups);
+            all.add(histogram);
+            allErrors += noErrors;
+            allHits += noHits;
+            allLookups += noLookups;
+        }
+        histograms.put("all", all);
+        errors.put("all", allErrors);
+        hits.put("all", allHits);
+        lookups.put("all", allLookups);
+
+        System.out.printf("%nRequests to the Dataverse stub: %d%n%n", stub.getNoRequests());
+        System.out.printf("%-10s %10s %8s %10s %8s %10s %10s %10s %10s %10s%n",
+                "request", "count", "errors", "req/s", "hit %", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long noLookups = lookups.get(entry.getKey());
+            System.out.printf("%-10s %10d %8d %10.1f %8.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    entry.getKey(), histogram.getTotalCount(), errors.get(entry.getKey()),
+                    histogram.getTotalCount() / seconds,
+                    (noLookups > 0) ? (100.0 * hits.get(entry.getKey()) / noLookups) : 0.0,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0);
+        }
+
+        String hgrm = getOption("hgrm", null);
+        if (hgrm != null) {
+            Files.createDirectories(Paths.get(hgrm));
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                try (PrintStream out = new PrintStream(new File(hgrm, entry.getKey() + ".hgrm"))) {
+                    entry.getValue().outputPercentileDistribution(out, 1000.0);
+                }
+            }
+            System.out.printf("%nWrote the latency histograms (in ms) to %s%n", hgrm);
+        }
+    }
+
+    /**
+     * Returns the value of the given option.
+     *
+     * @param name         The name of the option.
+     * @param defaultValue The value if the option is not given.
+     * @return The value.
+     */
+    private String getOption(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * A virtual user, sending requests one after the other and recording the latency of each request,
+     * and whether the response was taken from the response cache.
+     */
+    private class VirtualUser extends Thread {
+        private final Map<String, Histogram> histograms = new HashMap<>();
+        private final Map<String, Long> errors = new HashMap<>();
+        private final Map<String, Long> hits = new HashMap<>();
+        private final Map<String, Long> lookups = new HashMap<>();
+
+        /**
+         * Creates a virtual user.
+         */
+        private VirtualUser() {
+            setDaemon(true);
+            for (String type : mix.keySet()) {
+                histograms.put(type, new Histogram(3));
+                errors.put(type, 0L);
+                hits.put(type, 0L);
+                lookups.put(type, 0L);
+            }
+        }
+
+        /**
+         * Sends requests until the load test is over.
+         */
+        @Override
+        public void run() {
+            int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            while (running) {
+                String type = null;
+                int choice = random.nextInt(totalWeight);
+                for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                    type = entry.getKey();
+                    choice -= entry.getValue();
+                    if (choice < 0)
+                        break;
+                }
+
+                String path = getPath(type, random);
+
+                HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                        .header("Accept-Encoding", "gzip")
+                        .timeout(Duration.ofMinutes(5))
+                        .build();
+
+                boolean measure = measuring;
+                long start = System.nanoTime();
+                boolean success;
+                String serverTiming = "";
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    success = response.statusCode() == 200;
+                    serverTiming = response.headers().firstValue("Server-Timing").orElse("");
+                }
+                catch (IOException | InterruptedException e) {
+                    success = false;
+                }
+                long latency = (System.nanoTime() - start) / 1000;
+
+                if (measure && measuring) {
+                    histograms.get(type).recordValue(latency);
+                    if (!success)
+                        errors.merge(type, 1L, Long::sum);
+                    if (serverTiming.contains("cache-responses;desc=\"hit\""))
+                        hits.merge(type, 1L, Long::sum);
+                    if (serverTiming.contains("cache-responses;desc="))
+                        lookups.merge(type, 1L, Long::sum);
+                }
+            }
+        }
+    }
+}
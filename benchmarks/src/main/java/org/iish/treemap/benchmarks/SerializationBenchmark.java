@@ -0,0 +1,94 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.json.JsonResponseWriter;
+import org.iish.treemap.labour.LabourRelations;
+import org.iish.treemap.model.treemap.TreemapInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing a treemap response in each of the supported formats.
+ * The response is written to a stream that only counts the bytes, so only the serialisation is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class SerializationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ResponseState {
+        @Param({"json", "columnar", "cbor"})
+        public String format;
+
+        public JsonResponseWriter writer;
+        public TreemapInfo treemapInfo;
+
+        /**
+         * Builds the treemap to write and the writer for the format.
+         *
+         * @param dataset   The dataset.
+         * @param hierarchy The hierarchy.
+         */
+        @Setup(Level.Trial)
+        public void setUpResponse(LabourDatasetState dataset, TreemapBuilderBenchmark.HierarchyState hierarchy) {
+            writer = new JsonResponseWriter(false, !format.equals("json"));
+            treemapInfo = new TreemapInfo(
+                    TreemapBuilderBenchmark.createTreemapBuilder(dataset, hierarchy)
+                            .getFlatTreeMap(dataset.config.labour.treemap.rootLabel),
+                    Collections.emptyList(),
+                    dataset.injector.getInstance(LabourRelations.class).getLegend());
+        }
+    }
+
+    /**
+     * Writes the treemap response.
+     *
+     * @param state The response to write.
+     * @return The number of bytes written.
+     * @throws IOException On failure to write.
+     */
+    @Benchmark
+    public long write(ResponseState state) throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        if (state.format.equals("cbor"))
+            state.writer.writeCbor(state.treemapInfo, outputStream);
+        else
+            state.writer.write(state.treemapInfo, outputStream);
+        return outputStream.count;
+    }
+
+    /**
+     * An output stream that discards all bytes, but counts them.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        /**
+         * Counts a single byte.
+         *
+         * @param b The byte.
+         */
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        /**
+         * Counts the given bytes.
+         *
+         * @param b   The bytes.
+         * @param off The offset.
+         * @param len The number of bytes.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.labour.TotalPopulation;
+import org.iish.treemap.model.tabular.TabularData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks enriching the dataset with the total population,
+ * both when the extension has to be computed and when it is cached.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class TotalPopulationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TotalPopulationState {
+        public TotalPopulation totalPopulation;
+        public long version;
+
+        /**
+         * Creates the total population and computes the extension of the cached version.
+         *
+         * @param dataset The dataset.
+         */
+        @Setup(Level.Trial)
+        public void setUpTotalPopulation(LabourDatasetState dataset) {
+            totalPopulation = dataset.injector.getInstance(TotalPopulation.class);
+            totalPopulation.enrichDataset("cached", dataset.data);
+        }
+    }
+
+    /**
+     * Enriches the dataset with a new version every time, so the extension is always computed.
+     *
+     * @param dataset The dataset.
+     * @param state   The total population.
+     * @return The enriched dataset.
+     */
+    @Benchmark
+    public TabularData uncached(LabourDatasetState dataset, TotalPopulationState state) {
+        return state.totalPopulation.enrichDataset(String.valueOf(state.version++), dataset.data);
+    }
+
+    /**
+     * Enriches the dataset with the same version every time, so the extension comes from the cache.
+     *
+     * @param dataset The dataset.
+     * @param state   The total population.
+     * @return The enriched dataset.
+     */
+    @Benchmark
+    public TabularData cached(LabourDatasetState dataset, TotalPopulationState state) {
+        return state.totalPopulation.enrichDataset("cached", dataset.data);
+    }
+}
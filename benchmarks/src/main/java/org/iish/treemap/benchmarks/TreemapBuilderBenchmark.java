@@ -0,0 +1,88 @@
+package org.iish.treemap.benchmarks;
+
+import org.iish.treemap.config.Config;
+import org.iish.treemap.model.treemap.FlatTreemap;
+import org.iish.treemap.model.treemap.TreemapBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building a treemap from the dataset, for hierarchies of increasing depth.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang=ALL-UNNAMED", "-Xmx8g"})
+public class TreemapBuilderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HierarchyState {
+        @Param({"1", "3", "5"})
+        public int depth;
+
+        public List<String> hierarchy;
+
+        /**
+         * Determines the hierarchy columns for the configured depth.
+         *
+         * @param dataset The dataset.
+         */
+        @Setup(Level.Trial)
+        public void setUpHierarchy(LabourDatasetState dataset) {
+            Config.VirtualColumns virtualColumns = dataset.config.labour.xlsx.virtualColumns;
+            hierarchy = Arrays.asList(virtualColumns.labRel11, virtualColumns.labRel12, virtualColumns.labRel13,
+                    virtualColumns.labRel21, dataset.config.labour.xlsx.columns.country).subList(0, depth);
+        }
+    }
+
+    /**
+     * Builds a treemap the way the labour treemap endpoint does.
+     *
+     * @param dataset   The dataset.
+     * @param hierarchy The hierarchy.
+     * @return The treemap.
+     */
+    @Benchmark
+    public FlatTreemap treemap(LabourDatasetState dataset, HierarchyState hierarchy) {
+        return createTreemapBuilder(dataset, hierarchy).getFlatTreeMap(dataset.config.labour.treemap.rootLabel);
+    }
+
+    /**
+     * Builds a treemap for each time period the way the labour treemap periods endpoint does.
+     *
+     * @param dataset   The dataset.
+     * @param hierarchy The hierarchy.
+     * @return The treemaps.
+     */
+    @Benchmark
+    public Map<String, FlatTreemap> treemapsByTimePeriod(LabourDatasetState dataset, HierarchyState hierarchy) {
+        return createTreemapBuilder(dataset, hierarchy).getFlatTreeMaps(
+                dataset.config.labour.treemap.rootLabel, dataset.config.labour.xlsx.virtualColumns.bmyear);
+    }
+
+    /**
+     * Creates a treemap builder with the same settings as the labour treemap endpoint.
+     *
+     * @param dataset   The dataset.
+     * @param hierarchy The hierarchy.
+     * @return The treemap builder.
+     */
+    static TreemapBuilder createTreemapBuilder(LabourDatasetState dataset, HierarchyState hierarchy) {
+        Config config = dataset.config;
+
+        TreemapBuilder treemapBuilder = new TreemapBuilder(
+                dataset.data, hierarchy.hierarchy, config.labour.xlsx.columns.total);
+        treemapBuilder.setRoundSize(true);
+        treemapBuilder.setColorColumn(config.labour.xlsx.virtualColumns.color);
+        treemapBuilder.setCodeColumn(config.labour.xlsx.virtualColumns.code);
+        treemapBuilder.setEmptyMap(config.labour.treemap.empty);
+        treemapBuilder.setSuffixMap(config.labour.treemap.suffix);
+
+        return treemapBuilder;
+    }
+}
@@ -0,0 +1,304 @@
+package org.iish.treemap.benchmarks;
+
+import com.google.inject.Guice;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.labour.TimePeriod;
+import org.iish.treemap.labour.TimePeriods;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes realistic labour relations Excel (XLSX) files to benchmark ingestion.
+ * The workbook is written directly as Office Open XML, so that every string cell can be written either
+ * as a shared string or as an inline string, and so that large workbooks can be written in constant memory.
+ * Like the real datasets, the sheet starts with a header row followed by two description rows.
+ */
+public class XlsxFixture {
+    private static final long SEED = 42;
+    private static final String[] HEADERS = {
+            "id", "country", "year", "total", "labour_rel_01", "labour_rel_02", "labour_rel_03", "source"
+    };
+
+    private final Config config;
+    private final List<TimePeriod> timePeriods;
+    private final List<String> countries;
+    private final List<String> codes;
+
+    private int rows = 10000;
+    private double multiples = 0.1;
+    private double naDensity = 0.2;
+    private double sharedStrings = 1.0;
+
+    /**
+     * Creates a generator with the countries, labour relation codes and time periods from the given configuration.
+     *
+     * @param config      The configuration.
+     * @param timePeriods The time periods.
+     */
+    public XlsxFixture(Config config, TimePeriods timePeriods) {
+        this.config = config;
+        this.timePeriods = timePeriods.getTimePeriods();
+        this.countries = new ArrayList<>(new TreeSet<>(config.countriesToContinent.keySet()));
+        this.codes = new ArrayList<>(new TreeSet<>(config.labourRelations.codes.keySet()));
+    }
+
+    /**
+     * Sets the number of data rows.
+     *
+     * @param rows The number of data rows.
+     */
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Sets the fraction of labour relations with multiple codes separated by a 0.
+     *
+     * @param multiples The fraction of labour relations with multiple codes.
+     */
+    public void setMultiples(double multiples) {
+        this.multiples = multiples;
+    }
+
+    /**
+     * Sets the fraction of secondary and third labour relations that are not available (NA).
+     *
+     * @param naDensity The fraction of NA values.
+     */
+    public void setNaDensity(double naDensity) {
+        this.naDensity = naDensity;
+    }
+
+    /**
+     * Sets the fraction of string cells written as shared strings; the others are written as inline strings.
+     *
+     * @param sharedStrings The fraction of shared strings.
+     */
+    public void setSharedStrings(double sharedStrings) {
+        this.sharedStrings = sharedStrings;
+    }
+
+    /**
+     * Writes the workbook to the given file.
+     *
+     * @param file The file.
+     * @throws IOException On failure to write.
+     */
+    public void write(Path file) throws IOException {
+        Random random = new Random(SEED);
+        Random stringsRandom = new Random(SEED);
+        Map<String, Integer> sharedStringsTable = new LinkedHashMap<>();
+
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+
+            writeEntry(zip, writer, "[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                    "<Default Extension=\"rels\" " +
+                    "ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                    "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+                    "<Override PartName=\"/xl/workbook.xml\" " +
+                    "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+                    "<Override PartName=\"/xl/worksheets/sheet1.xml\" " +
+                    "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+                    "<Override PartName=\"/xl/sharedStrings.xml\" " +
+                    "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>" +
+                    "</Types>");
+
+            writeEntry(zip, writer, "_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                    "<Relationship Id=\"rId1\" Target=\"xl/workbook.xml\" Type=\"http://schemas.openxmlformats.org" +
+                    "/officeDocument/2006/relationships/officeDocument\"/>" +
+                    "</Relationships>");
+
+            writeEntry(zip, writer, "xl/workbook.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" " +
+                    "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">" +
+                    "<sheets><sheet name=\"data\" sheetId=\"1\" r:id=\"rId1\"/></sheets>" +
+                    "</workbook>");
+
+            writeEntry(zip, writer, "xl/_rels/workbook.xml.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                    "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\" " +
+                    "Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\"/>" +
+                    "<Relationship Id=\"rId2\" Target=\"sharedStrings.xml\" " +
+                    "Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\"/>" +
+                    "</Relationships>");
+
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+
+            writeRow(writer, stringsRandom, sharedStringsTable, 0, HEADERS);
+            writeRow(writer, stringsRandom, sharedStringsTable, 1, descriptions("Description"));
+            writeRow(writer, stringsRandom, sharedStringsTable, 2, descriptions("Notes"));
+            for (int i = 0; i < rows; i++)
+                writeRow(writer, stringsRandom, sharedStringsTable, i + 3, createRow(random, i));
+
+            writer.write("</sheetData></worksheet>");
+            writer.flush();
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("xl/sharedStrings.xml"));
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" uniqueCount=\"" +
+                    sharedStringsTable.size() + "\">");
+            for (String string : sharedStringsTable.keySet())
+                writer.write("<si><t>" + escape(string) + "</t></si>");
+            writer.write("</sst>");
+            writer.flush();
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Creates the values of a single data row.
+     *
+     * @param random The random generator.
+     * @param id     The id of the row.
+     * @return The values; numbers are returned as Integer, text as String.
+     */
+    private Object[] createRow(Random random, int id) {
+        TimePeriod timePeriod = timePeriods.get(random.nextInt(timePeriods.size()));
+        return new Object[]{
+                id,
+                countries.get(skewed(random, countries.size())),
+                timePeriod.getMinYear() + random.nextInt(timePeriod.getMaxYear() - timePeriod.getMinYear() + 1),
+                random.nextInt(100000),
+                randomLabourRelation(random),
+                (random.nextDouble() < naDensity) ? config.labour.xlsx.empty : randomLabourRelation(random),
+                (random.nextDouble() < naDensity) ? config.labour.xlsx.empty : randomLabourRelation(random),
+                "Synthetic dataset"
+        };
+    }
+
+    /**
+     * Creates a description row, with a description for every column.
+     *
+     * @param prefix The prefix of each description.
+     * @return The values.
+     */
+    private static Object[] descriptions(String prefix) {
+        return Arrays.stream(HEADERS).map(header -> prefix + " of " + header).toArray();
+    }
+
+    /**
+     * Returns a random index where lower indexes are more likely, like the number of records per country.
+     *
+     * @param random The random generator.
+     * @param size   The number of indexes.
+     * @return The index.
+     */
+    private static int skewed(Random random, int size) {
+        double value = random.nextDouble();
+        return (int) (value * value * size);
+    }
+
+    /**
+     * Returns a random labour relation, with multiple codes separated by a 0 for the configured fraction.
+     *
+     * @param random The random generator.
+     * @return The labour relation.
+     */
+    private String randomLabourRelation(Random random) {
+        String code = codes.get(random.nextInt(codes.size()));
+        if (random.nextDouble() < multiples)
+            code += "0" + codes.get(random.nextInt(codes.size()));
+        return code;
+    }
+
+    /**
+     * Writes a row to the sheet.
+     *
+     * @param writer             The writer of the sheet.
+     * @param random             The random generator deciding between shared and inline strings.
+     * @param sharedStringsTable The shared strings table, with the index of each shared string.
+     * @param rowIndex           The index of the row.
+     * @param values             The values of the row.
+     * @throws IOException On failure to write.
+     */
+    private void writeRow(Writer writer, Random random, Map<String, Integer> sharedStringsTable,
+                          int rowIndex, Object[] values) throws IOException {
+        writer.write("<row r=\"" + (rowIndex + 1) + "\">");
+        for (int col = 0; col < values.length; col++) {
+            String reference = (char) ('A' + col) + String.valueOf(rowIndex + 1);
+            Object value = values[col];
+
+            if (value instanceof Integer) {
+                writer.write("<c r=\"" + reference + "\"><v>" + value + "</v></c>");
+            }
+            else if (random.nextDouble() < sharedStrings) {
+                Integer index = sharedStringsTable.computeIfAbsent((String) value, k -> sharedStringsTable.size());
+                writer.write("<c r=\"" + reference + "\" t=\"s\"><v>" + index + "</v></c>");
+            }
+            else {
+                writer.write("<c r=\"" + reference + "\" t=\"inlineStr\"><is><t>" +
+                        escape((String) value) + "</t></is></c>");
+            }
+        }
+        writer.write("</row>");
+    }
+
+    /**
+     * Writes a complete entry to the archive.
+     *
+     * @param zip     The archive.
+     * @param writer  The writer on top of the archive.
+     * @param name    The name of the entry.
+     * @param content The content of the entry.
+     * @throws IOException On failure to write.
+     */
+    private static void writeEntry(ZipOutputStream zip, Writer writer, String name, String content)
+            throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        writer.write(content);
+        writer.flush();
+        zip.closeEntry();
+    }
+
+    /**
+     * Escapes the given text for XML.
+     *
+     * @param text The text.
+     * @return The escaped text.
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Writes a workbook with the given settings.
+     * Usage: XlsxFixture file [rows] [multiples] [naDensity] [sharedStrings]
+     *
+     * @param args The command line arguments.
+     * @throws IOException On failure to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: XlsxFixture file [rows] [multiples] [naDensity] [sharedStrings]");
+            System.exit(1);
+        }
+
+        Config config = LabourDatasetState.loadConfig();
+        XlsxFixture fixture = new XlsxFixture(config, Guice.createInjector(
+                binder -> binder.bind(Config.class).toInstance(config)).getInstance(TimePeriods.class));
+
+        if (args.length > 1)
+            fixture.setRows(Integer.parseInt(args[1]));
+        if (args.length > 2)
+            fixture.setMultiples(Double.parseDouble(args[2]));
+        if (args.length > 3)
+            fixture.setNaDensity(Double.parseDouble(args[3]));
+        if (args.length > 4)
+            fixture.setSharedStrings(Double.parseDouble(args[4]));
+
+        fixture.write(Paths.get(args[0]));
+    }
+}
@@ -1,18 +1,26 @@
 package org.iish.treemap;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
-import org.iish.treemap.config.AcceptAllTrustManager;
 import org.iish.treemap.config.Config;
 import org.iish.treemap.config.StandardDataset;
 import org.iish.treemap.config.TreemapModule;
+import org.iish.treemap.dataset.DataverseFile;
+import org.iish.treemap.json.JsonResponseWriter;
 import org.iish.treemap.labour.LabourRelations;
 import org.iish.treemap.labour.LabourRelationsXlsxReader;
 import org.iish.treemap.labour.LabourTreeMapBuilder;
 import org.iish.treemap.labour.TimePeriods;
 import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.CacheStatistics;
+import org.iish.treemap.util.EntityTags;
+import org.iish.treemap.util.FlightRecordings;
+import org.iish.treemap.util.MemoryAccounting;
+import org.iish.treemap.util.Metrics;
+import org.iish.treemap.util.ResponseCache;
+import org.iish.treemap.util.ResponseCache.EncodedResponse;
+import org.iish.treemap.util.RequestTimings;
+import org.iish.treemap.util.SlowRequestJournal;
 import org.iish.treemap.util.XlsxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +31,16 @@ import spark.servlet.SparkApplication;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 import static spark.Spark.*;
 
@@ -31,12 +49,26 @@ import static spark.Spark.*;
  */
 public class Application implements SparkApplication {
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final JsonResponseWriter JSON =
+            new JsonResponseWriter(Boolean.getBoolean("treemap.prettyPrint"), false);
+    private static final JsonResponseWriter COLUMNAR =
+            new JsonResponseWriter(Boolean.getBoolean("treemap.prettyPrint"), true);
+
+    private static final String FILES_CACHE_CONTROL = "public, max-age=300";
+    private static final String IMMUTABLE_DATASET_CACHE_CONTROL = "public, max-age=3600";
+    private static final String DATASET_CACHE_CONTROL = "no-cache";
+    private static final Set<String> FORMATS = new HashSet<>(Arrays.asList("json", "columnar", "cbor"));
 
     private Injector injector;
     private String key;
     private StandardDataset standardDataset;
     private LabourTreeMapBuilder labourTreeMapBuilder;
+    private ResponseCache responseCache;
+    private Metrics metrics;
+    private CacheStatistics cacheStatistics;
+    private SlowRequestJournal slowRequestJournal;
+    private MemoryAccounting memoryAccounting;
+    private FlightRecordings flightRecordings;
 
     /**
      * Run the application from the command line with the packaged Jetty servlet container.
@@ -53,7 +85,6 @@ public class Application implements SparkApplication {
      */
     @Override
     public void init() {
-        AcceptAllTrustManager.init();
         setUpInjector();
         loadIntoMemory();
         setUpPaths();
@@ -67,6 +98,12 @@ public class Application implements SparkApplication {
         this.key = injector.getInstance(Config.class).key;
         this.standardDataset = injector.getInstance(StandardDataset.class);
         this.labourTreeMapBuilder = injector.getInstance(LabourTreeMapBuilder.class);
+        this.responseCache = injector.getInstance(ResponseCache.class);
+        this.metrics = injector.getInstance(Metrics.class);
+        this.cacheStatistics = injector.getInstance(CacheStatistics.class);
+        this.slowRequestJournal = injector.getInstance(SlowRequestJournal.class);
+        this.memoryAccounting = injector.getInstance(MemoryAccounting.class);
+        this.flightRecordings = injector.getInstance(FlightRecordings.class);
     }
 
     /**
@@ -76,26 +113,329 @@ public class Application implements SparkApplication {
         staticFiles.location("/public");
         staticFiles.expireTime(60*60*24); // 1 day in seconds
 
-        get("/labour/files", (req, res) -> labourTreeMapBuilder.getFiles(req), GSON::toJson);
+        before("/labour/*", (req, res) -> {
+            metrics.startRequest((req.queryString() != null)
+                    ? req.pathInfo() + "?" + req.queryString() : req.pathInfo());
+            checkFormat(req, res);
+        });
+
+        get("/labour/files", (req, res) -> {
+            Set<DataverseFile> files = labourTreeMapBuilder.getFiles(req);
+            String version = files.stream()
+                    .sorted(Comparator.comparingLong(DataverseFile::getId))
+                    .map(file -> file.getId() + ":" + file.getName() + ":" + file.getChecksum())
+                    .collect(Collectors.joining(","));
+            return respond(req, res, version, FILES_CACHE_CONTROL, () -> files);
+        });
+
+        get("/labour/columns", (req, res) ->
+                respond(req, res, labourTreeMapBuilder.getDatasetVersion(req), getDatasetCacheControl(req),
+                        () -> labourTreeMapBuilder.getColumns(req)));
+
+        get("/labour/treemap", (req, res) ->
+                respond(req, res, labourTreeMapBuilder.getDatasetVersion(req), getDatasetCacheControl(req),
+                        () -> labourTreeMapBuilder.getTreemap(req)));
+
+        get("/labour/treemap/periods", (req, res) ->
+                respond(req, res, labourTreeMapBuilder.getDatasetVersion(req), getDatasetCacheControl(req),
+                        () -> labourTreeMapBuilder.getTreemapsByTimePeriod(req)));
+
+        get("/metrics", this::writeMetrics);
 
-        get("/labour/columns", (req, res) -> labourTreeMapBuilder.getColumns(req), GSON::toJson);
+        post("/admin/caches", this::writeCacheStatistics);
 
-        get("/labour/treemap", (req, res) -> labourTreeMapBuilder.getTreemap(req), GSON::toJson);
+        post("/admin/memory", this::writeMemoryReport);
+
+        post("/admin/recording/start", this::startRecording);
+
+        post("/admin/recording/stop", this::stopRecording);
 
         post("/upload", this::uploadDataset);
 
-        after((req, res) -> {
-            res.type("text/json");
-            res.header("Content-Encoding", "gzip");
+        afterAfter("/labour/*", (req, res) -> {
+            RequestTimings timings = metrics.finishRequest();
+            if (timings != null)
+                slowRequestJournal.record(req, res.raw().getStatus(), timings);
         });
 
         exception(Exception.class, (e, req, res) -> {
             LOGGER.error(e.getMessage(), e);
+            res.raw().setHeader("ETag", null);
+            res.raw().setHeader("Cache-Control", "no-store");
             res.status(400);
+            res.type("text/plain");
             res.body(e.getMessage());
         });
     }
 
+    /**
+     * Sends the response for a cacheable request.
+     * The validators and the caching policy are set first; if the client already has the current response,
+     * a '304 Not Modified' response is sent. Otherwise the encoded response is taken from the response cache,
+     * or it is built, serialized, encoded and cached.
+     * With 'profile=true', the cache lookups and the time spent in each stage are sent in a Server-Timing header.
+     *
+     * @param req          The request.
+     * @param res          The response.
+     * @param version      The version of the data the response is based on.
+     * @param cacheControl The caching policy.
+     * @param value        Builds the object to send.
+     * @return An empty body, as the response has already been written.
+     * @throws Exception On failure to build or write the response.
+     */
+    private Object respond(Request req, Response res, String version, String cacheControl,
+                           Callable<Object> value) throws Exception {
+        RequestTimings timings = metrics.getRequestTimings();
+        if (timings != null)
+            timings.setVersion(version);
+
+        boolean gzip = acceptsGzip(req);
+        String entityTag = EntityTags.create(version, req, gzip);
+
+        res.header("ETag", entityTag);
+        res.header("Cache-Control", cacheControl);
+        res.header("Vary", "Accept-Encoding");
+
+        if (EntityTags.matches(req.headers("If-None-Match"), entityTag)) {
+            if ((timings != null) && isProfiling(req)) {
+                timings.addMarker("not-modified", "304");
+                res.header("Server-Timing", timings.getServerTiming());
+            }
+            res.status(304);
+            return "";
+        }
+
+        EncodedResponse response = responseCache.get(entityTag);
+        if (response == null) {
+            long start = System.nanoTime();
+            Object responseValue = value.call();
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            String contentType;
+            try (Metrics.Timer timer = metrics.time(Metrics.SERIALIZE)) {
+                contentType = writeBody(req, responseValue, body);
+                timer.setDetail(contentType + ", " + body.size() + " bytes");
+            }
+
+            try (Metrics.Timer timer = metrics.time(Metrics.ENCODE)) {
+                response = responseCache.put(entityTag, contentType, body.toByteArray(), gzip);
+                timer.setDetail(((response.getContentEncoding() != null) ? response.getContentEncoding() : "identity")
+                        + ", " + response.getBytes().length + " bytes");
+            }
+            cacheStatistics.recordLoad(CacheStatistics.RESPONSES, System.nanoTime() - start);
+        }
+
+        if ((timings != null) && isProfiling(req))
+            res.header("Server-Timing", timings.getServerTiming());
+
+        res.type(response.getContentType());
+        if (response.getContentEncoding() != null)
+            res.header("Content-Encoding", response.getContentEncoding());
+        res.raw().setContentLength(response.getBytes().length);
+
+        try (OutputStream outputStream = res.raw().getOutputStream()) {
+            outputStream.write(response.getBytes());
+        }
+        return "";
+    }
+
+    /**
+     * Returns the caching policy for responses based on the datasets of the given request.
+     * Responses based on Dataverse files only may be cached for a while by anyone,
+     * responses based on the standard dataset have to be revalidated as it may be replaced at any time.
+     *
+     * @param req The request.
+     * @return The caching policy.
+     */
+    private String getDatasetCacheControl(Request req) {
+        return labourTreeMapBuilder.isImmutable(req) ? IMMUTABLE_DATASET_CACHE_CONTROL : DATASET_CACHE_CONTROL;
+    }
+
+    /**
+     * Determines whether the client requested the time spent in each stage with the 'profile' parameter.
+     *
+     * @param req The request.
+     * @return Whether the client requested the time spent in each stage.
+     */
+    private static boolean isProfiling(Request req) {
+        return "true".equalsIgnoreCase(req.queryParams("profile"));
+    }
+
+    /**
+     * Determines whether the client accepts gzip encoded responses.
+     *
+     * @param req The request.
+     * @return Whether the client accepts gzip encoded responses.
+     */
+    private static boolean acceptsGzip(Request req) {
+        return Collections.list(req.raw().getHeaders("Accept-Encoding")).stream()
+                .anyMatch(acceptEncoding -> acceptEncoding.contains("gzip"));
+    }
+
+    /**
+     * Rejects a request for an unknown format with '400 Bad Request', before any work is done for the request
+     * and before any validators are set, so that the error is never cached.
+     *
+     * @param req The request.
+     * @param res The response.
+     */
+    private static void checkFormat(Request req, Response res) {
+        String format = req.queryParams("format");
+        if ((format != null) && !FORMATS.contains(format)) {
+            res.type("text/plain");
+            res.header("Cache-Control", "no-store");
+            halt(400, "Unknown format '" + format + "'!");
+        }
+    }
+
+    /**
+     * Serializes the given object in the format requested with the 'format' parameter:
+     * 'json' (default) for JSON, 'columnar' for JSON with columnar treemaps or 'cbor' for CBOR with columnar treemaps.
+     *
+     * @param req          The request.
+     * @param value        The object to write.
+     * @param outputStream The output stream to write to.
+     * @return The content type of the format.
+     * @throws IOException On failure to write.
+     */
+    private String writeBody(Request req, Object value, OutputStream outputStream) throws IOException {
+        String format = req.queryParams("format");
+        if ((format == null) || format.equals("json")) {
+            JSON.write(value, outputStream);
+            return "text/json";
+        }
+
+        if (format.equals("columnar")) {
+            COLUMNAR.write(value, outputStream);
+            return "text/json";
+        }
+
+        if (format.equals("cbor")) {
+            COLUMNAR.writeCbor(value, outputStream);
+            return "application/cbor";
+        }
+
+        throw new IllegalArgumentException("Unknown format '" + format + "'!");
+    }
+
+    /**
+     * Rejects a request without the upload key with '401 Unauthorized'.
+     *
+     * @param req The request.
+     * @param res The response.
+     */
+    private void checkKey(Request req, Response res) {
+        if (!key.equals(req.queryParams("key"))) {
+            res.type("text/plain");
+            halt(401, "Invalid upload key!");
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param req The request.
+     * @param res The response.
+     * @return An empty body, as the response has already been written.
+     * @throws IOException On failure to write.
+     */
+    private String writeMetrics(Request req, Response res) throws IOException {
+        res.type(metrics.getContentType());
+        try (Writer writer = new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8)) {
+            metrics.write(writer);
+        }
+        return "";
+    }
+
+    /**
+     * Writes the statistics and current entries of all caches; requires the upload key, posted as a form field.
+     *
+     * @param req The request.
+     * @param res The response.
+     * @return An empty body, as the response has already been written.
+     * @throws IOException On failure to write.
+     */
+    private String writeCacheStatistics(Request req, Response res) throws IOException {
+        checkKey(req, res);
+
+        res.type("text/json");
+        res.header("Cache-Control", "no-store");
+        try (OutputStream outputStream = res.raw().getOutputStream()) {
+            JSON.write(cacheStatistics.getSnapshots(), outputStream);
+        }
+        return "";
+    }
+
+    /**
+     * Writes the estimated memory held by the standard dataset and the caches,
+     * and allocated by the requests in flight; requires the upload key, posted as a form field.
+     *
+     * @param req The request.
+     * @param res The response.
+     * @return An empty body, as the response has already been written.
+     * @throws IOException On failure to write.
+     */
+    private String writeMemoryReport(Request req, Response res) throws IOException {
+        checkKey(req, res);
+
+        res.type("text/json");
+        res.header("Cache-Control", "no-store");
+        try (OutputStream outputStream = res.raw().getOutputStream()) {
+            JSON.write(memoryAccounting.getReport(), outputStream);
+        }
+        return "";
+    }
+
+    /**
+     * Starts a flight recording; requires the upload key, posted as a form field just like for an upload.
+     * The 'settings' parameter selects the JFR settings ('profile' by default)
+     * and the 'maxSeconds' parameter the maximum duration of the recording (10 minutes by default).
+     *
+     * @param req The request.
+     * @param res The response.
+     * @return Ok.
+     * @throws IOException    On failure to read the settings.
+     * @throws ParseException On failure to parse the settings.
+     */
+    private String startRecording(Request req, Response res) throws IOException, ParseException {
+        checkKey(req, res);
+
+        String settings = (req.queryParams("settings") != null) ? req.queryParams("settings") : "profile";
+        long maxSeconds = (req.queryParams("maxSeconds") != null) ? Long.parseLong(req.queryParams("maxSeconds")) : 600;
+
+        res.type("text/plain");
+        if (!flightRecordings.start(settings, Duration.ofSeconds(maxSeconds)))
+            halt(409, "A recording is already running!");
+
+        res.header("Cache-Control", "no-store");
+        return "OK!";
+    }
+
+    /**
+     * Stops the flight recording and sends it as a JFR file; requires the upload key, posted as a form field.
+     *
+     * @param req The request.
+     * @param res The response.
+     * @return An empty body, as the response has already been written.
+     * @throws IOException On failure to write the recording.
+     */
+    private String stopRecording(Request req, Response res) throws IOException {
+        checkKey(req, res);
+
+        if (!flightRecordings.hasRecording()) {
+            res.type("text/plain");
+            halt(404, "No recording was started!");
+        }
+
+        res.type("application/octet-stream");
+        res.header("Content-Disposition", "attachment; filename=\"treemap.jfr\"");
+        res.header("Cache-Control", "no-store");
+        try (OutputStream outputStream = res.raw().getOutputStream()) {
+            flightRecordings.stop(outputStream);
+        }
+        return "";
+    }
+
     /**
      * The provided dataset should be loaded into memory.
      */
@@ -107,6 +447,7 @@ public class Application implements SparkApplication {
             try (ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(path))) {
                 TabularData data = (TabularData) objectInputStream.readObject();
                 standardDataset.setDataset(data);
+                memoryAccounting.checkBudget();
             }
             catch (Exception e) {
                 LOGGER.error("Failed to load stored dataset to memory!", e);
@@ -128,8 +469,7 @@ public class Application implements SparkApplication {
         MultipartConfigElement multipartConfigElement = new MultipartConfigElement("/tmp");
         req.attribute("org.eclipse.jetty.multipartConfig", multipartConfigElement);
 
-        if (!key.equals(req.queryParams("key")))
-            halt(401, "Invalid upload key!");
+        checkKey(req, res);
 
         try (InputStream inputStream = req.raw().getPart("excel").getInputStream()) {
             LabourRelationsXlsxReader xlsxReader = new LabourRelationsXlsxReader(
@@ -146,6 +486,7 @@ public class Application implements SparkApplication {
             objectOutputStream.close();
 
             standardDataset.setDataset(data);
+            memoryAccounting.checkBudget();
         }
 
         res.redirect("/index.html");
@@ -10,6 +10,9 @@ public class Config {
     public String key;
     public Dataverse dataverse;
     public Cache cache;
+    public Journal journal;
+    public Memory memory;
+    public Prefetch prefetch;
     public Data labour;
     public LabourRelations labourRelations;
     public List<TimePeriod> timePeriods;
@@ -20,11 +23,35 @@ public class Config {
         public String url;
         public int connectTimeoutMs;
         public int readTimeoutMs;
+        public String trustStore;
+        public String trustStorePassword;
+        public int maxParallelDownloads;
+        public int maxParallelParses;
     }
 
     public static class Cache {
         public int maximumSize;
         public long maxHoursAccessTime;
+        public long maximumResponsesMegabytes;
+        public long fileListingsRefreshSeconds;
+        public long fileListingsExpireSeconds;
+    }
+
+    public static class Journal {
+        public long slowRequestMs;
+        public long maxFileMegabytes;
+        public int maxFiles;
+    }
+
+    public static class Memory {
+        public long budgetMegabytes;
+        public int warnPercentage;
+    }
+
+    public static class Prefetch {
+        public boolean enabled;
+        public int maxParallel;
+        public long maxMegabytes;
     }
 
     public static class Data {
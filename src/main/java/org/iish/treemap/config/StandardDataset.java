@@ -3,20 +3,24 @@ package org.iish.treemap.config;
 import com.google.inject.Singleton;
 import org.iish.treemap.model.tabular.TabularData;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Temporary holder for the default large dataset, not found in Dataverse yet.
+ * The dataset and its version are held together in a single snapshot, which is replaced as a whole,
+ * so that a dataset is never combined with the version of another dataset.
  */
 @Singleton
 public class StandardDataset {
-    private TabularData dataset;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(null, 0));
 
     /**
-     * Returns the default dataset.
+     * Returns the current default dataset together with its version.
      *
-     * @return The dataset.
+     * @return The snapshot of the default dataset.
      */
-    public TabularData getDataset() {
-        return dataset;
+    public Snapshot getSnapshot() {
+        return snapshot.get();
     }
 
     /**
@@ -25,6 +29,43 @@ public class StandardDataset {
      * @param dataset The dataset.
      */
     public void setDataset(TabularData dataset) {
-        this.dataset = dataset;
+        snapshot.updateAndGet(previous -> new Snapshot(dataset, previous.version + 1));
+    }
+
+    /**
+     * The default dataset together with its version.
+     */
+    public static class Snapshot {
+        private final TabularData dataset;
+        private final long version;
+
+        /**
+         * Creates a snapshot of the default dataset.
+         *
+         * @param dataset The dataset, or null if not set.
+         * @param version The version of the dataset.
+         */
+        private Snapshot(TabularData dataset, long version) {
+            this.dataset = dataset;
+            this.version = version;
+        }
+
+        /**
+         * Returns the default dataset.
+         *
+         * @return The dataset, or null if not set.
+         */
+        public TabularData getDataset() {
+            return dataset;
+        }
+
+        /**
+         * Returns the version of the default dataset, which changes every time a new dataset is set.
+         *
+         * @return The version.
+         */
+        public long getVersion() {
+            return version;
+        }
     }
 }
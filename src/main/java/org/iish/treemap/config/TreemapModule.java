@@ -6,6 +6,8 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
 import com.google.inject.Provides;
 import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.CacheStatistics;
+import org.iish.treemap.util.HeapEstimator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
@@ -52,18 +54,18 @@ public class TreemapModule extends AbstractModule {
     /**
      * Builds a new cache.
      *
-     * @param config The cache configuration.
+     * @param config          The cache configuration.
+     * @param cacheStatistics The registry of caches with statistics.
      * @return A new cache.
      */
     @Provides
     @Singleton
-    public Cache<String, TabularData> providesCache(Config config) {
+    public Cache<String, TabularData> providesCache(Config config, CacheStatistics cacheStatistics) {
         LOGGER.info("Building a cache for datasets with a maximum size of {} items and which " +
                 "expires after {} hours without access.", config.cache.maximumSize, config.cache.maxHoursAccessTime);
 
-        return CacheBuilder.newBuilder()
+        return cacheStatistics.build(CacheStatistics.DATASETS, CacheBuilder.newBuilder()
                 .maximumSize(config.cache.maximumSize)
-                .expireAfterAccess(config.cache.maxHoursAccessTime, TimeUnit.HOURS)
-                .build();
+                .expireAfterAccess(config.cache.maxHoursAccessTime, TimeUnit.HOURS), HeapEstimator::estimate);
     }
 }
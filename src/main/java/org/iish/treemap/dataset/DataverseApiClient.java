@@ -1,33 +1,52 @@
 package org.iish.treemap.dataset;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 import com.google.inject.Singleton;
 import org.iish.treemap.config.Config;
 
 import javax.inject.Inject;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Provides access to Dataverse APIs to obtain datasets.
+ * All requests share a single HTTP client, which keeps its connections alive for reuse
+ * and uses HTTP/2 where the server supports it. Requests are sent and their responses read asynchronously,
+ * so that no thread is blocked while waiting on Dataverse; only parsing a response streaming in
+ * takes a thread of the client. Files are streamed to temporary files on disk.
+ * The certificate of Dataverse is verified, including its hostname, against the configured trust store,
+ * or against the default trust store of the JVM if none is configured.
  */
 @Singleton
 public class DataverseApiClient {
     private static final String API_DATASETS_PERSISTENT_ID = "/api/datasets/:persistentId/?persistentId=hdl:";
     private static final String API_ACCESS_DATAFILE = "/api/access/datafile/";
 
-    private static final JsonParser JSON_PARSER = new JsonParser();
-
     private String url;
-    private int connectTimeout;
-    private int readTimeout;
+    private Duration readTimeout;
+    private ExecutorService executor;
+    private HttpClient httpClient;
 
     /**
      * Uses the provided configuration to configure DataverseApiClient access.
@@ -37,87 +56,318 @@ public class DataverseApiClient {
     @Inject
     public DataverseApiClient(Config config) {
         this.url = config.dataverse.url;
-        this.connectTimeout = config.dataverse.connectTimeoutMs;
-        this.readTimeout = config.dataverse.readTimeoutMs;
+        this.readTimeout = Duration.ofMillis(config.dataverse.readTimeoutMs);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("dataverse-%d")
+                .setDaemon(true)
+                .build());
+        this.httpClient = HttpClient.newBuilder()
+                .executor(executor)
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(config.dataverse.connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .sslContext(createSSLContext(config))
+                .build();
     }
 
     /**
-     * Returns the dataset files found in DataverseApiClient for the given PID.
+     * Creates the SSL context to verify the certificate of Dataverse with.
      *
-     * @param pid         The PID.
-     * @param contentType Filter out files that do no have this content type.
-     * @return A set with files found in DataverseApiClient.
-     * @throws DataverseException Thrown when not successful to obtain data about the files in DataverseApiClient.
+     * @param config The configuration.
+     * @return The SSL context using the configured trust store, or the default SSL context if none is configured.
      */
-    public Set<DataverseFile> getFilesForPid(String pid, String contentType) throws DataverseException {
+    private static SSLContext createSSLContext(Config config) {
         try {
-            Set<DataverseFile> files = new HashSet<>();
-            URL url = new URL(this.url + API_DATASETS_PERSISTENT_ID + pid);
-            HttpURLConnection connection = getConnection(url);
+            if ((config.dataverse.trustStore == null) || config.dataverse.trustStore.isEmpty())
+                return SSLContext.getDefault();
 
-            if (connection.getResponseCode() != 200) {
-                throw new DataverseException("Could not obtain the files for PID " + pid
-                        + ": " + connection.getResponseMessage());
+            char[] password = (config.dataverse.trustStorePassword != null)
+                    ? config.dataverse.trustStorePassword.toCharArray() : null;
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            try (FileInputStream inputStream = new FileInputStream(config.dataverse.trustStore)) {
+                trustStore.load(inputStream, password);
             }
 
-            JsonElement response = JSON_PARSER.parse(new InputStreamReader(connection.getInputStream()));
-            response.getAsJsonObject()
-                    .getAsJsonObject("data")
-                    .getAsJsonObject("latestVersion")
-                    .getAsJsonArray("files")
-                    .forEach(file -> {
-                        JsonObject dataFile = file.getAsJsonObject().getAsJsonObject("dataFile");
-                        if (dataFile.get("contentType").getAsString().equalsIgnoreCase(contentType)) {
-                            files.add(new DataverseFile(
-                                    dataFile.get("id").getAsLong(), dataFile.get("filename").getAsString()
-                            ));
-                        }
-                    });
+            TrustManagerFactory trustManagerFactory =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
 
-            return files;
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+            return sslContext;
         }
-        catch (IllegalStateException | IOException e) {
-            throw new DataverseException("Could not obtain the files for PID " + pid, e);
+        catch (GeneralSecurityException | IOException e) {
+            throw new RuntimeException("Failure to set up the trust store for Dataverse.", e);
         }
     }
 
     /**
-     * Returns an input stream for the given file id from DataverseApiClient.
+     * Asynchronously obtains the listing of the files of the dataset with the given PID.
+     * If a previous listing with validators is given, Dataverse is asked with a conditional request
+     * whether it is still up to date, in which case the previous listing is returned as revalidated.
+     * The response is parsed while it streams in, skipping all metadata not describing the files.
+     *
+     * @param pid      The PID.
+     * @param previous The previous listing, or null.
+     * @return A future with the listing, completed exceptionally with a DataverseException when not successful.
+     */
+    public CompletableFuture<DataverseFileListing> getFileListingAsync(String pid, DataverseFileListing previous) {
+        String message = "Could not obtain the files for PID " + pid;
+
+        HttpRequest.Builder request = newRequest(API_DATASETS_PERSISTENT_ID + pid);
+        if ((previous != null) && (previous.getETag() != null))
+            request.header("If-None-Match", previous.getETag());
+        if ((previous != null) && (previous.getLastModified() != null))
+            request.header("If-Modified-Since", previous.getLastModified());
+
+        return send(request.build(), HttpResponse.BodyHandlers.ofInputStream(), message)
+                .thenApplyAsync(response -> {
+                    try (InputStream inputStream = response.body()) {
+                        if ((response.statusCode() == 304) && (previous != null))
+                            return previous.revalidated();
+
+                        return parseFileListing(inputStream,
+                                response.headers().firstValue("ETag").orElse(null),
+                                response.headers().firstValue("Last-Modified").orElse(null));
+                    }
+                    catch (JsonParseException | IllegalStateException | IOException e) {
+                        throw new CompletionException(new DataverseException(message, e));
+                    }
+                }, executor);
+    }
+
+    /**
+     * Asynchronously downloads the file with the given file id from DataverseApiClient into a temporary file.
+     * The file is written to disk while it streams in, so it is never held in memory as a whole.
+     * The caller owns the downloaded file and has to delete it when done; on failure it is deleted already.
      *
      * @param id The file id.
-     * @return An input stream.
-     * @throws DataverseException Thrown when not successful to obtain the file from DataverseApiClient.
+     * @return A future with the path of the downloaded file,
+     * completed exceptionally with a DataverseException when not successful.
      */
-    public InputStream getFileById(long id) throws DataverseException {
+    public CompletableFuture<Path> getFileByIdAsync(long id) {
+        String message = "Could not obtain the file for id " + id;
+
+        Path path;
         try {
-            URL url = new URL(this.url + API_ACCESS_DATAFILE + id);
-            HttpURLConnection connection = getConnection(url);
+            path = Files.createTempFile("dataverse-" + id + "-", null);
+        }
+        catch (IOException e) {
+            return CompletableFuture.failedFuture(new DataverseException(message, e));
+        }
 
-            if (connection.getResponseCode() != 200) {
-                throw new DataverseException("Could not obtain the file for id " + id
-                        + ": " + connection.getResponseMessage());
+        return send(newRequest(API_ACCESS_DATAFILE + id).build(), HttpResponse.BodyHandlers.ofFile(path), message)
+                .whenComplete((response, e) -> {
+                    if (e != null)
+                        path.toFile().delete();
+                })
+                .thenApply(HttpResponse::body);
+    }
+
+    /**
+     * Creates a GET request for the given API path.
+     *
+     * @param path The API path, including the query string.
+     * @return The request builder.
+     */
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(URI.create(this.url + path))
+                .timeout(readTimeout)
+                .GET();
+    }
+
+    /**
+     * Sends the given request.
+     *
+     * @param request     The request.
+     * @param bodyHandler The handler of the response body.
+     * @param message     The message of the exception on failure.
+     * @param <T>         The type of the response body.
+     * @return A future with the response, either successful or not modified,
+     * completed exceptionally with a DataverseException otherwise.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+                                                        String message) {
+        return httpClient.sendAsync(request, bodyHandler).handle((response, e) -> {
+            if (e != null)
+                throw new CompletionException(new DataverseException(message,
+                        (e instanceof CompletionException) ? e.getCause() : e));
+
+            if ((response.statusCode() != 200) && (response.statusCode() != 304))
+                throw new CompletionException(new DataverseException(message + ": HTTP " + response.statusCode()));
+
+            return response;
+        });
+    }
+
+    /**
+     * Parses the listing of the files from the JSON description of a dataset.
+     * Only the version of the dataset and the id, name, content type, size and checksum of each file are read;
+     * all other values are skipped.
+     *
+     * @param inputStream  The JSON description of the dataset.
+     * @param eTag         The entity tag of the response, or null if not given.
+     * @param lastModified The last modification date of the response, or null if not given.
+     * @return The listing.
+     * @throws IOException Thrown when the JSON could not be read.
+     */
+    private static DataverseFileListing parseFileListing(InputStream inputStream, String eTag, String lastModified)
+            throws IOException {
+        List<FileEntry> entries = null;
+        String versionNumber = null, versionMinorNumber = null, versionState = null;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        if (seekProperty(reader, "data") && seekProperty(reader, "latestVersion")) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "versionNumber":
+                        versionNumber = reader.nextString();
+                        break;
+                    case "versionMinorNumber":
+                        versionMinorNumber = reader.nextString();
+                        break;
+                    case "versionState":
+                        versionState = reader.nextString();
+                        break;
+                    case "files":
+                        entries = readFiles(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
             }
+        }
 
-            return connection.getInputStream();
+        if (entries == null)
+            throw new JsonParseException("No files in the description of the dataset");
+
+        String version = (versionNumber != null)
+                ? versionNumber + "." + ((versionMinorNumber != null) ? versionMinorNumber : "0") : versionState;
+
+        Map<String, Set<DataverseFile>> filesByContentType = new HashMap<>();
+        for (FileEntry entry : entries)
+            filesByContentType.computeIfAbsent(entry.contentType.toLowerCase(Locale.ROOT), type -> new HashSet<>())
+                    .add(new DataverseFile(entry.id, entry.filename, entry.size, entry.checksum, version));
+
+        return new DataverseFileListing(filesByContentType, eTag, lastModified);
+    }
+
+    /**
+     * Reads the properties of the current object up to the property with the given name,
+     * skipping the values of all other properties.
+     *
+     * @param reader The JSON reader, positioned at the start of an object.
+     * @param name   The name of the property.
+     * @return Whether the property was found, in which case the reader is positioned at its value.
+     * @throws IOException Thrown when the JSON could not be read.
+     */
+    private static boolean seekProperty(JsonReader reader, String name) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name))
+                return true;
+            reader.skipValue();
         }
-        catch (IOException e) {
-            throw new DataverseException("Could not obtain the file with id " + id, e);
+        return false;
+    }
+
+    /**
+     * Reads the files of a dataset version.
+     *
+     * @param reader The JSON reader, positioned at the start of the array of files.
+     * @return The files.
+     * @throws IOException Thrown when the JSON could not be read.
+     */
+    private static List<FileEntry> readFiles(JsonReader reader) throws IOException {
+        List<FileEntry> entries = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("dataFile"))
+                    entries.add(readDataFile(reader));
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
         }
+        reader.endArray();
+        return entries;
     }
 
     /**
-     * Sets up a connection for the given URL.
+     * Reads a single file.
+     * The checksum is given as its algorithm and value, e.g. 'MD5:9e107d9d372bb6826bd81d3542a419d6';
+     * older versions of Dataverse only give an MD5 checksum.
      *
-     * @param url The URL to establish a connection to.
-     * @return The established connection.
-     * @throws IOException Thrown when an I/O exception occurs.
+     * @param reader The JSON reader, positioned at the start of the file object.
+     * @return The file.
+     * @throws IOException Thrown when the JSON could not be read.
      */
-    private HttpURLConnection getConnection(URL url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setConnectTimeout(connectTimeout);
-        connection.setReadTimeout(readTimeout);
+    private static FileEntry readDataFile(JsonReader reader) throws IOException {
+        FileEntry entry = new FileEntry();
+        String checksumType = null, checksumValue = null, md5 = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    entry.id = reader.nextLong();
+                    break;
+                case "filename":
+                    entry.filename = reader.nextString();
+                    break;
+                case "contentType":
+                    entry.contentType = reader.nextString();
+                    break;
+                case "filesize":
+                    entry.size = reader.nextLong();
+                    break;
+                case "md5":
+                    md5 = reader.nextString();
+                    break;
+                case "checksum":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "type":
+                                checksumType = reader.nextString();
+                                break;
+                            case "value":
+                                checksumValue = reader.nextString();
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((entry.id == null) || (entry.filename == null) || (entry.contentType == null))
+            throw new JsonParseException("A file in the description of the dataset misses its id, name or type");
 
-        return connection;
+        if ((checksumType != null) && (checksumValue != null))
+            entry.checksum = checksumType.toUpperCase(Locale.ROOT) + ":" + checksumValue.toLowerCase(Locale.ROOT);
+        else if (md5 != null)
+            entry.checksum = "MD5:" + md5.toLowerCase(Locale.ROOT);
+
+        return entry;
+    }
+
+    /**
+     * A file read from the description of a dataset, before the version of the dataset is known.
+     */
+    private static class FileEntry {
+        private Long id;
+        private String filename;
+        private String contentType;
+        private long size = -1;
+        private String checksum;
     }
 }
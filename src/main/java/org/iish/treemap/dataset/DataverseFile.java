@@ -6,16 +6,26 @@ package org.iish.treemap.dataset;
 public class DataverseFile {
     private final long id;
     private final String name;
+    private final long size;
+    private final String checksum;
+    private final String version;
 
     /**
      * Creates a representation of a file in Dataverse.
      *
-     * @param id   The id of the file.
-     * @param name The name of the file.
+     * @param id       The id of the file.
+     * @param name     The name of the file.
+     * @param size     The size of the file in bytes, or -1 if unknown.
+     * @param checksum The checksum of the file as its algorithm and value, e.g. 'MD5:...', or null if unknown.
+     * @param version  The version of the dataset the file was listed in, or null if unknown.
      */
-    public DataverseFile(final long id, final String name) {
+    public DataverseFile(final long id, final String name, final long size, final String checksum,
+                         final String version) {
         this.id = id;
         this.name = name;
+        this.size = size;
+        this.checksum = checksum;
+        this.version = version;
     }
 
     /**
@@ -35,4 +45,31 @@ public class DataverseFile {
     public String getName() {
         return name;
     }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return The size of the file in bytes, or -1 if unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the checksum of the file as its algorithm and value, e.g. 'MD5:9e107d9d372bb6826bd81d3542a419d6'.
+     *
+     * @return The checksum of the file, or null if unknown.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the version of the dataset the file was listed in, e.g. '2.1'.
+     *
+     * @return The version of the dataset, or null if unknown.
+     */
+    public String getVersion() {
+        return version;
+    }
 }
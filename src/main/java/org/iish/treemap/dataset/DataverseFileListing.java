@@ -0,0 +1,87 @@
+package org.iish.treemap.dataset;
+
+import java.util.*;
+
+/**
+ * The files of a dataset in Dataverse by content type,
+ * together with the validators of the response they were obtained from.
+ */
+public class DataverseFileListing {
+    private final Map<String, Set<DataverseFile>> filesByContentType;
+    private final String eTag;
+    private final String lastModified;
+    private final long fetchedAt;
+
+    /**
+     * Creates a listing of the files of a dataset.
+     *
+     * @param filesByContentType The files by their content type, in lower case.
+     * @param eTag               The entity tag of the response, or null if not given.
+     * @param lastModified       The last modification date of the response, or null if not given.
+     */
+    public DataverseFileListing(Map<String, Set<DataverseFile>> filesByContentType, String eTag,
+                                String lastModified) {
+        this.filesByContentType = filesByContentType;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.fetchedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the files with the given content type.
+     *
+     * @param contentType The content type.
+     * @return The files with the given content type.
+     */
+    public Set<DataverseFile> getFiles(String contentType) {
+        Set<DataverseFile> files = filesByContentType.get(contentType.toLowerCase(Locale.ROOT));
+        return (files != null) ? Collections.unmodifiableSet(files) : Collections.emptySet();
+    }
+
+    /**
+     * Returns all files of the dataset.
+     *
+     * @return All files.
+     */
+    public List<DataverseFile> getAllFiles() {
+        List<DataverseFile> files = new ArrayList<>();
+        filesByContentType.values().forEach(files::addAll);
+        return files;
+    }
+
+    /**
+     * Returns the entity tag of the response, to revalidate the listing with.
+     *
+     * @return The entity tag, or null if not given.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns the last modification date of the response, to revalidate the listing with.
+     *
+     * @return The last modification date, or null if not given.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the time since the listing was obtained or last revalidated.
+     *
+     * @return The age in milliseconds.
+     */
+    public long getAgeMs() {
+        return System.currentTimeMillis() - fetchedAt;
+    }
+
+    /**
+     * Returns a copy of this listing, after Dataverse confirmed that it is still up to date.
+     *
+     * @return The revalidated listing.
+     */
+    public DataverseFileListing revalidated() {
+        return new DataverseFileListing(filesByContentType, eTag, lastModified);
+    }
+}
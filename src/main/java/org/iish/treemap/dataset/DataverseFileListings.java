@@ -0,0 +1,149 @@
+package org.iish.treemap.dataset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.util.CacheStatistics;
+import org.iish.treemap.util.HeapEstimator;
+import org.iish.treemap.util.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Caches the listings of the files of the datasets in Dataverse by PID.
+ * A listing older than the refresh interval is still returned, while it is revalidated in the background
+ * with a conditional request; a listing is only obtained while waiting if it is missing or has expired.
+ * Concurrent requests for the same listing share a single request to Dataverse.
+ */
+@Singleton
+public class DataverseFileListings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataverseFileListings.class);
+
+    private final DataverseApiClient dataverseApiClient;
+    private final CacheStatistics cacheStatistics;
+    private final Metrics metrics;
+    private final Cache<String, DataverseFileListing> cache;
+    private final long refreshMs;
+    private final ConcurrentMap<String, CompletableFuture<DataverseFileListing>> inFlight =
+            new ConcurrentHashMap<>();
+    private final List<Consumer<DataverseFileListing>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates the cache of the listings of the files.
+     *
+     * @param config             The configuration to use.
+     * @param dataverseApiClient The Dataverse API client.
+     * @param cacheStatistics    The registry of caches with statistics.
+     * @param metrics            The metrics to record the time spent waiting on Dataverse with.
+     */
+    @Inject
+    public DataverseFileListings(Config config, DataverseApiClient dataverseApiClient,
+                                 CacheStatistics cacheStatistics, Metrics metrics) {
+        this.dataverseApiClient = dataverseApiClient;
+        this.cacheStatistics = cacheStatistics;
+        this.metrics = metrics;
+
+        long refreshSeconds = (config.cache.fileListingsRefreshSeconds > 0)
+                ? config.cache.fileListingsRefreshSeconds : 60;
+        long expireSeconds = (config.cache.fileListingsExpireSeconds > 0)
+                ? config.cache.fileListingsExpireSeconds : 3600;
+
+        LOGGER.info("Building a cache for file listings which are refreshed after {} seconds and " +
+                "expire after {} seconds without a refresh.", refreshSeconds, expireSeconds);
+
+        this.refreshMs = TimeUnit.SECONDS.toMillis(refreshSeconds);
+        this.cache = cacheStatistics.build(CacheStatistics.FILE_LISTINGS, CacheBuilder.newBuilder()
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS), HeapEstimator::estimate);
+    }
+
+    /**
+     * Returns the files with the given content type of the dataset with the given PID.
+     *
+     * @param pid         The PID.
+     * @param contentType Filter out files that do no have this content type.
+     * @return A set with the files found.
+     * @throws DataverseException Thrown when not successful to obtain data about the files in Dataverse.
+     */
+    public Set<DataverseFile> getFiles(String pid, String contentType) throws DataverseException {
+        DataverseFileListing listing = cache.getIfPresent(pid);
+
+        if (listing == null) {
+            long start = System.nanoTime();
+            try (Metrics.Timer timer = metrics.time(Metrics.DATAVERSE)) {
+                listing = fetch(pid, null).join();
+                timer.setDataset(pid);
+                timer.setDetail("files");
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof DataverseException)
+                    throw (DataverseException) e.getCause();
+                throw new DataverseException("Could not obtain the files for PID " + pid, e.getCause());
+            }
+            cacheStatistics.recordLoad(CacheStatistics.FILE_LISTINGS, System.nanoTime() - start);
+        }
+        else if (listing.getAgeMs() >= refreshMs) {
+            fetch(pid, listing).exceptionally(e -> {
+                LOGGER.warn("Failed to refresh the files for PID {}; serving the cached files.", pid, e);
+                return null;
+            });
+        }
+
+        return listing.getFiles(contentType);
+    }
+
+    /**
+     * Adds a listener that is informed of every listing obtained or revalidated, right after it is cached.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Consumer<DataverseFileListing> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the file with the given id, as found in the cached listings.
+     *
+     * @param id The id of the file.
+     * @return The file, or null if the file is not found in any cached listing.
+     */
+    public DataverseFile getFile(long id) {
+        for (DataverseFileListing listing : cache.asMap().values()) {
+            for (DataverseFile file : listing.getAllFiles()) {
+                if (file.getId() == id)
+                    return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtains the listing for the given PID and caches it,
+     * or joins the request to Dataverse already in flight for the PID.
+     *
+     * @param pid      The PID.
+     * @param previous The cached listing to revalidate, or null.
+     * @return A future with the listing.
+     */
+    private CompletableFuture<DataverseFileListing> fetch(String pid, DataverseFileListing previous) {
+        CompletableFuture<DataverseFileListing> future = inFlight.computeIfAbsent(pid, key ->
+                dataverseApiClient.getFileListingAsync(key, previous).thenApply(listing -> {
+                    cache.put(key, listing);
+                    listeners.forEach(listener -> listener.accept(listing));
+                    return listing;
+                }));
+        future.whenComplete((listing, e) -> inFlight.remove(pid, future));
+        return future;
+    }
+}
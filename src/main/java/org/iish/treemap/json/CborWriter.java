@@ -0,0 +1,332 @@
+package org.iish.treemap.json;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON stream which writes CBOR (RFC 7049) instead of JSON text,
+ * so that the same type adapters can be used for both encodings.
+ * Arrays and objects are written with an indefinite length, so they can be streamed.
+ */
+public class CborWriter extends JsonWriter {
+    private static final int UNSIGNED_INTEGER = 0;
+    private static final int NEGATIVE_INTEGER = 1;
+    private static final int TEXT_STRING = 3;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int DOUBLE = 0xFB;
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final DataOutputStream out;
+    private String deferredName;
+
+    /**
+     * Creates a CBOR stream.
+     *
+     * @param outputStream The output stream to write the CBOR to.
+     */
+    public CborWriter(OutputStream outputStream) {
+        super(new CharArrayWriter(0));
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+    }
+
+    /**
+     * Begins an array of indefinite length.
+     *
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     *
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    /**
+     * Begins a map of indefinite length.
+     *
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        out.write(INDEFINITE_MAP);
+        return this;
+    }
+
+    /**
+     * Ends the current map.
+     *
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter endObject() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    /**
+     * Sets the name of the next property; it is only written once its value is written.
+     *
+     * @param name The name of the property.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null)
+            throw new NullPointerException("name == null");
+        if (deferredName != null)
+            throw new IllegalStateException();
+
+        deferredName = name;
+        return this;
+    }
+
+    /**
+     * Writes a text string.
+     *
+     * @param value The string.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null)
+            return nullValue();
+
+        writeDeferredName();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Raw JSON cannot be embedded in CBOR.
+     *
+     * @param value The raw JSON.
+     * @return Nothing.
+     */
+    @Override
+    public JsonWriter jsonValue(String value) {
+        throw new UnsupportedOperationException("Raw JSON values are not supported in CBOR!");
+    }
+
+    /**
+     * Writes a null value, unless it is the value of a property and nulls should not be serialized.
+     *
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (deferredName != null) {
+            if (!getSerializeNulls()) {
+                deferredName = null;
+                return this; // Skip the name and the value, just like JSON does
+            }
+            writeDeferredName();
+        }
+
+        out.write(NULL);
+        return this;
+    }
+
+    /**
+     * Writes a boolean.
+     *
+     * @param value The boolean.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Writes a boolean, which may be null.
+     *
+     * @param value The boolean.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        if (value == null)
+            return nullValue();
+        return value(value.booleanValue());
+    }
+
+    /**
+     * Writes a double precision float.
+     *
+     * @param value The number.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        writeDeferredName();
+        out.write(DOUBLE);
+        out.writeDouble(value);
+        return this;
+    }
+
+    /**
+     * Writes an integer.
+     *
+     * @param value The integer.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        writeInteger(value);
+        return this;
+    }
+
+    /**
+     * Writes a number; integral numbers within the range of a long are written as CBOR integers,
+     * all other numbers as double precision floats.
+     *
+     * @param value The number.
+     * @return This stream.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null)
+            return nullValue();
+
+        if ((value instanceof Long) || (value instanceof Integer)
+                || (value instanceof Short) || (value instanceof Byte))
+            return value(value.longValue());
+
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            if ((decimal.signum() == 0) || (decimal.scale() <= 0) || (decimal.stripTrailingZeros().scale() <= 0)) {
+                BigInteger integer = decimal.toBigInteger();
+                if ((integer.compareTo(MIN_LONG) >= 0) && (integer.compareTo(MAX_LONG) <= 0))
+                    return value(integer.longValue());
+            }
+        }
+
+        return value(value.doubleValue());
+    }
+
+    /**
+     * Flushes the written CBOR to the output stream.
+     *
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the output stream.
+     *
+     * @throws IOException On failure to close.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes the name of the current property, if there is one waiting to be written.
+     *
+     * @throws IOException On failure to write.
+     */
+    private void writeDeferredName() throws IOException {
+        if (deferredName != null) {
+            writeString(deferredName);
+            deferredName = null;
+        }
+    }
+
+    /**
+     * Writes an UTF-8 text string.
+     *
+     * @param value The string.
+     * @throws IOException On failure to write.
+     */
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHead(TEXT_STRING, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a positive or negative integer.
+     *
+     * @param value The integer.
+     * @throws IOException On failure to write.
+     */
+    private void writeInteger(long value) throws IOException {
+        if (value >= 0)
+            writeHead(UNSIGNED_INTEGER, value);
+        else
+            writeHead(NEGATIVE_INTEGER, -1 - value);
+    }
+
+    /**
+     * Writes the initial bytes of a data item: the major type and its argument in the smallest form possible.
+     *
+     * @param majorType The major type.
+     * @param argument  The argument, interpreted as an unsigned value.
+     * @throws IOException On failure to write.
+     */
+    private void writeHead(int majorType, long argument) throws IOException {
+        int type = majorType << 5;
+        if ((argument >= 0) && (argument < 24)) {
+            out.write(type | (int) argument);
+        }
+        else if ((argument >= 0) && (argument <= 0xFFL)) {
+            out.write(type | 24);
+            out.writeByte((int) argument);
+        }
+        else if ((argument >= 0) && (argument <= 0xFFFFL)) {
+            out.write(type | 25);
+            out.writeShort((int) argument);
+        }
+        else if ((argument >= 0) && (argument <= 0xFFFFFFFFL)) {
+            out.write(type | 26);
+            out.writeInt((int) argument);
+        }
+        else {
+            out.write(type | 27);
+            out.writeLong(argument);
+        }
+    }
+}
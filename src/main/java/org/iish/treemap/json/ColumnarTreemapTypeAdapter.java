@@ -0,0 +1,112 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.FlatTreemap;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Writes treemaps in a compact columnar form: a dictionary with all distinct strings
+ * and parallel arrays with one entry per node, with the nodes in depth-first order.
+ * Strings are referred to by their index in the dictionary, or -1 if absent;
+ * the parent of a node is referred to by its index in the arrays, or -1 for the root.
+ * Composites have no size, leafs do.
+ */
+public class ColumnarTreemapTypeAdapter extends TypeAdapter<FlatTreemap> {
+
+    /**
+     * Writes the given treemap and all of its children.
+     *
+     * @param out     The JSON stream.
+     * @param treemap The treemap.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, FlatTreemap treemap) throws IOException {
+        if ((treemap == null) || (treemap.getNoNodes() == 0)) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+
+        out.name("strings").beginArray();
+        for (String string : treemap.getStrings())
+            out.value(string);
+        out.endArray();
+
+        writeInts(out, "parent", treemap, treemap::getParent);
+        writeInts(out, "name", treemap, treemap::getNameId);
+        writeInts(out, "originalColumn", treemap, treemap::getOriginalColumnId);
+        writeInts(out, "column", treemap, treemap::getColumnId);
+        writeInts(out, "suffix", treemap, treemap::getSuffixId);
+        writeInts(out, "color", treemap, treemap::getColorId);
+        writeInts(out, "code", treemap, treemap::getCodeId);
+        writeInts(out, "isEmpty", treemap, node -> treemap.isEmpty(node) ? 1 : 0);
+
+        writeSizes(out, "size", treemap, treemap::getSize);
+
+        if (treemap.hasDiff()) {
+            writeSizes(out, "sizeA", treemap, treemap::getSizeA);
+            writeSizes(out, "sizeB", treemap, treemap::getSizeB);
+            writeSizes(out, "delta", treemap, treemap::getDelta);
+        }
+
+        out.endObject();
+    }
+
+    /**
+     * Reading treemaps is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public FlatTreemap read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading treemaps is not supported!");
+    }
+
+    /**
+     * Writes an array with an integer for each node.
+     *
+     * @param out     The JSON stream.
+     * @param name    The name of the array.
+     * @param treemap The treemap.
+     * @param value   The integer of a node.
+     * @throws IOException On failure to write.
+     */
+    private static void writeInts(JsonWriter out, String name, FlatTreemap treemap,
+                                  IntUnaryOperator value) throws IOException {
+        out.name(name).beginArray();
+        for (int node = 0; node < treemap.getNoNodes(); node++)
+            out.value(value.applyAsInt(node));
+        out.endArray();
+    }
+
+    /**
+     * Writes an array with a size for each node.
+     *
+     * @param out     The JSON stream.
+     * @param name    The name of the array.
+     * @param treemap The treemap.
+     * @param size    The size of a node, which may be null.
+     * @throws IOException On failure to write.
+     */
+    private static void writeSizes(JsonWriter out, String name, FlatTreemap treemap,
+                                   IntFunction<BigDecimal> size) throws IOException {
+        out.name(name).beginArray();
+        for (int node = 0; node < treemap.getNoNodes(); node++) {
+            BigDecimal value = size.apply(node);
+            if (value != null)
+                out.value(value);
+            else
+                out.nullValue();
+        }
+        out.endArray();
+    }
+}
@@ -0,0 +1,126 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.labour.LabourValuesFilterInfo;
+import org.iish.treemap.model.treemap.FilterInfo;
+import org.iish.treemap.model.treemap.RangeFilterInfo;
+import org.iish.treemap.model.treemap.ValuesFilterInfo;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes filter information, of both ranges and values, directly to a JSON stream.
+ */
+public class FilterInfoTypeAdapter extends TypeAdapter<FilterInfo> {
+
+    /**
+     * Writes the given filter information.
+     *
+     * @param out        The JSON stream.
+     * @param filterInfo The filter information.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, FilterInfo filterInfo) throws IOException {
+        if (filterInfo == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+
+        if (filterInfo instanceof LabourValuesFilterInfo) {
+            LabourValuesFilterInfo labourValuesFilterInfo = (LabourValuesFilterInfo) filterInfo;
+            writeYears(out, labourValuesFilterInfo.getYears());
+            writeTimePeriods(out, labourValuesFilterInfo.getTimePeriods());
+        }
+
+        if (filterInfo instanceof ValuesFilterInfo) {
+            out.name("values");
+            writeValues(out, ((ValuesFilterInfo) filterInfo).getValues());
+        }
+
+        if (filterInfo instanceof RangeFilterInfo) {
+            out.name("min").value(((RangeFilterInfo) filterInfo).getMin());
+            out.name("max").value(((RangeFilterInfo) filterInfo).getMax());
+        }
+
+        out.name("column").value(filterInfo.getColumn());
+        out.name("label").value(filterInfo.getLabel());
+
+        out.endObject();
+    }
+
+    /**
+     * Reading filter information is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public FilterInfo read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading filter information is not supported!");
+    }
+
+    /**
+     * Writes the available years for each cross section year, if there are any.
+     *
+     * @param out   The JSON stream.
+     * @param years The available years for each cross section year.
+     * @throws IOException On failure to write.
+     */
+    private void writeYears(JsonWriter out, Map<String, ? extends Collection<String>> years) throws IOException {
+        if (years != null) {
+            out.name("years").beginObject();
+            for (Map.Entry<String, ? extends Collection<String>> entry : years.entrySet()) {
+                out.name(entry.getKey());
+                writeValues(out, entry.getValue());
+            }
+            out.endObject();
+        }
+    }
+
+    /**
+     * Writes the time periods for each value, if there are any.
+     *
+     * @param out         The JSON stream.
+     * @param timePeriods The time periods for each value.
+     * @throws IOException On failure to write.
+     */
+    private void writeTimePeriods(JsonWriter out, Map<String, Map<String, String>> timePeriods)
+            throws IOException {
+        if (timePeriods != null) {
+            out.name("timePeriods").beginObject();
+            for (Map.Entry<String, Map<String, String>> entry : timePeriods.entrySet()) {
+                out.name(entry.getKey()).beginObject();
+                for (Map.Entry<String, String> timePeriod : entry.getValue().entrySet())
+                    out.name(timePeriod.getKey()).value(timePeriod.getValue());
+                out.endObject();
+            }
+            out.endObject();
+        }
+    }
+
+    /**
+     * Writes the given values as an array.
+     *
+     * @param out    The JSON stream.
+     * @param values The values.
+     * @throws IOException On failure to write.
+     */
+    private void writeValues(JsonWriter out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        for (String value : values)
+            out.value(value);
+        out.endArray();
+    }
+}
@@ -0,0 +1,77 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.FlatTreemap;
+
+import java.io.IOException;
+
+/**
+ * Writes flat treemaps directly to a JSON stream, as the same nested structure as {@link TreemapTypeAdapter}.
+ */
+public class FlatTreemapTypeAdapter extends TypeAdapter<FlatTreemap> {
+
+    /**
+     * Writes the given treemap and all of its children.
+     *
+     * @param out     The JSON stream.
+     * @param treemap The treemap.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, FlatTreemap treemap) throws IOException {
+        if ((treemap == null) || (treemap.getNoNodes() == 0)) {
+            out.nullValue();
+            return;
+        }
+
+        write(out, treemap, 0);
+    }
+
+    /**
+     * Reading treemaps is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public FlatTreemap read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading treemaps is not supported!");
+    }
+
+    /**
+     * Writes the given node and all of its children.
+     *
+     * @param out     The JSON stream.
+     * @param treemap The treemap.
+     * @param node    The node.
+     * @throws IOException On failure to write.
+     */
+    private void write(JsonWriter out, FlatTreemap treemap, int node) throws IOException {
+        out.beginObject();
+
+        if (treemap.isLeaf(node)) {
+            out.name("size").value(treemap.getSize(node));
+        }
+        else {
+            out.name("children").beginArray();
+            for (int child = treemap.getFirstChild(node); child >= 0; child = treemap.getNextSibling(child))
+                write(out, treemap, child);
+            out.endArray();
+        }
+
+        out.name("originalColumn").value(treemap.getOriginalColumn(node));
+        out.name("column").value(treemap.getColumn(node));
+        out.name("name").value(treemap.getName(node));
+        out.name("suffix").value(treemap.getSuffix(node));
+        out.name("color").value(treemap.getColor(node));
+        out.name("code").value(treemap.getCode(node));
+        out.name("isEmpty").value(treemap.isEmpty(node));
+        out.name("sizeA").value(treemap.getSizeA(node));
+        out.name("sizeB").value(treemap.getSizeB(node));
+        out.name("delta").value(treemap.getDelta(node));
+
+        out.endObject();
+    }
+}
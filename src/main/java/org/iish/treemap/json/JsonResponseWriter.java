@@ -0,0 +1,73 @@
+package org.iish.treemap.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes response objects as JSON or as CBOR directly to an output stream,
+ * using hand-written type adapters for the treemap model.
+ */
+public class JsonResponseWriter {
+    private final Gson gson;
+
+    /**
+     * Creates a JSON response writer.
+     *
+     * @param prettyPrinting Whether to pretty print the JSON.
+     * @param columnar       Whether to write treemaps in the compact columnar form.
+     */
+    public JsonResponseWriter(boolean prettyPrinting, boolean columnar) {
+        TypeAdapter<FlatTreemap> flatTreemapTypeAdapter =
+                columnar ? new ColumnarTreemapTypeAdapter() : new FlatTreemapTypeAdapter();
+        FilterInfoTypeAdapter filterInfoTypeAdapter = new FilterInfoTypeAdapter();
+        LegendValueTypeAdapter legendValueTypeAdapter = new LegendValueTypeAdapter();
+        TreemapInfoTypeAdapter treemapInfoTypeAdapter =
+                new TreemapInfoTypeAdapter(flatTreemapTypeAdapter, filterInfoTypeAdapter, legendValueTypeAdapter);
+
+        GsonBuilder gsonBuilder = new GsonBuilder()
+                .registerTypeHierarchyAdapter(Treemap.class, new TreemapTypeAdapter())
+                .registerTypeAdapter(FlatTreemap.class, flatTreemapTypeAdapter)
+                .registerTypeHierarchyAdapter(FilterInfo.class, filterInfoTypeAdapter)
+                .registerTypeAdapter(LegendValue.class, legendValueTypeAdapter)
+                .registerTypeAdapter(TreemapInfo.class, treemapInfoTypeAdapter)
+                .registerTypeAdapter(PartitionedTreemapInfo.class, treemapInfoTypeAdapter);
+
+        if (prettyPrinting)
+            gsonBuilder.setPrettyPrinting();
+
+        this.gson = gsonBuilder.create();
+    }
+
+    /**
+     * Writes the given object as JSON to the given output stream.
+     *
+     * @param value        The object to write.
+     * @param outputStream The output stream.
+     * @throws IOException On failure to write.
+     */
+    public void write(Object value, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        JsonWriter jsonWriter = gson.newJsonWriter(writer);
+        gson.toJson(value, value.getClass(), jsonWriter);
+        jsonWriter.flush();
+    }
+
+    /**
+     * Writes the given object as CBOR, the binary equivalent of JSON, to the given output stream.
+     *
+     * @param value        The object to write.
+     * @param outputStream The output stream.
+     * @throws IOException On failure to write.
+     */
+    public void writeCbor(Object value, OutputStream outputStream) throws IOException {
+        CborWriter cborWriter = new CborWriter(outputStream);
+        gson.toJson(value, value.getClass(), cborWriter);
+        cborWriter.flush();
+    }
+}
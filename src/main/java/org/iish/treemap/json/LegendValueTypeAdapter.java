@@ -0,0 +1,46 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.LegendValue;
+
+import java.io.IOException;
+
+/**
+ * Writes legend values directly to a JSON stream.
+ */
+public class LegendValueTypeAdapter extends TypeAdapter<LegendValue> {
+
+    /**
+     * Writes the given legend value.
+     *
+     * @param out         The JSON stream.
+     * @param legendValue The legend value.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, LegendValue legendValue) throws IOException {
+        if (legendValue == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("label").value(legendValue.getLabel());
+        out.name("color").value(legendValue.getColor());
+        out.name("code").value(legendValue.getCode());
+        out.endObject();
+    }
+
+    /**
+     * Reading legend values is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public LegendValue read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading legend values is not supported!");
+    }
+}
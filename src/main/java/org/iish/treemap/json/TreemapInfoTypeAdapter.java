@@ -0,0 +1,110 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.FilterInfo;
+import org.iish.treemap.model.treemap.FlatTreemap;
+import org.iish.treemap.model.treemap.LegendValue;
+import org.iish.treemap.model.treemap.PartitionedTreemapInfo;
+import org.iish.treemap.model.treemap.TreemapInfo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes treemap information, with either a single treemap or partitioned treemaps, directly to a JSON stream.
+ */
+public class TreemapInfoTypeAdapter extends TypeAdapter<Object> {
+    private final TypeAdapter<FlatTreemap> treemapTypeAdapter;
+    private final TypeAdapter<FilterInfo> filterInfoTypeAdapter;
+    private final TypeAdapter<LegendValue> legendValueTypeAdapter;
+
+    /**
+     * Creates a treemap information type adapter.
+     *
+     * @param treemapTypeAdapter     The type adapter for treemaps.
+     * @param filterInfoTypeAdapter  The type adapter for filter information.
+     * @param legendValueTypeAdapter The type adapter for legend values.
+     */
+    public TreemapInfoTypeAdapter(TypeAdapter<FlatTreemap> treemapTypeAdapter,
+                                  TypeAdapter<FilterInfo> filterInfoTypeAdapter,
+                                  TypeAdapter<LegendValue> legendValueTypeAdapter) {
+        this.treemapTypeAdapter = treemapTypeAdapter;
+        this.filterInfoTypeAdapter = filterInfoTypeAdapter;
+        this.legendValueTypeAdapter = legendValueTypeAdapter;
+    }
+
+    /**
+     * Writes the given treemap information.
+     *
+     * @param out  The JSON stream.
+     * @param info The treemap information or the partitioned treemap information.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, Object info) throws IOException {
+        if (info instanceof TreemapInfo) {
+            TreemapInfo treemapInfo = (TreemapInfo) info;
+
+            out.beginObject();
+            out.name("treemap");
+            treemapTypeAdapter.write(out, treemapInfo.getTreemap());
+            writeFilterInfoAndLegend(out, treemapInfo.getFilterInfo(), treemapInfo.getLegend());
+            out.endObject();
+        }
+        else if (info instanceof PartitionedTreemapInfo) {
+            PartitionedTreemapInfo partitionedTreemapInfo = (PartitionedTreemapInfo) info;
+
+            out.beginObject();
+            out.name("treemaps").beginObject();
+            for (Map.Entry<String, FlatTreemap> entry : partitionedTreemapInfo.getTreemaps().entrySet()) {
+                out.name(entry.getKey());
+                treemapTypeAdapter.write(out, entry.getValue());
+            }
+            out.endObject();
+            writeFilterInfoAndLegend(out, partitionedTreemapInfo.getFilterInfo(), partitionedTreemapInfo.getLegend());
+            out.endObject();
+        }
+        else {
+            out.nullValue();
+        }
+    }
+
+    /**
+     * Reading treemap information is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public Object read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading treemap information is not supported!");
+    }
+
+    /**
+     * Writes the filter information and the legend.
+     *
+     * @param out        The JSON stream.
+     * @param filterInfo The filter information.
+     * @param legend     The legend.
+     * @throws IOException On failure to write.
+     */
+    private void writeFilterInfoAndLegend(JsonWriter out, List<FilterInfo> filterInfo, List<LegendValue> legend)
+            throws IOException {
+        if (filterInfo != null) {
+            out.name("filterInfo").beginArray();
+            for (FilterInfo info : filterInfo)
+                filterInfoTypeAdapter.write(out, info);
+            out.endArray();
+        }
+
+        if (legend != null) {
+            out.name("legend").beginArray();
+            for (LegendValue legendValue : legend)
+                legendValueTypeAdapter.write(out, legendValue);
+            out.endArray();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.iish.treemap.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.iish.treemap.model.treemap.Composite;
+import org.iish.treemap.model.treemap.Leaf;
+import org.iish.treemap.model.treemap.Treemap;
+
+import java.io.IOException;
+
+/**
+ * Writes treemaps, both composites and leafs, directly to a JSON stream.
+ */
+public class TreemapTypeAdapter extends TypeAdapter<Treemap> {
+
+    /**
+     * Writes the given treemap and all of its children.
+     *
+     * @param out     The JSON stream.
+     * @param treemap The treemap.
+     * @throws IOException On failure to write.
+     */
+    @Override
+    public void write(JsonWriter out, Treemap treemap) throws IOException {
+        if (treemap == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+
+        if (treemap instanceof Composite) {
+            out.name("children").beginArray();
+            for (Treemap child : ((Composite) treemap).getChildren())
+                write(out, child);
+            out.endArray();
+        }
+
+        if (treemap instanceof Leaf)
+            out.name("size").value(((Leaf) treemap).getSize());
+
+        out.name("originalColumn").value(treemap.getOriginalColumn());
+        out.name("column").value(treemap.getColumn());
+        out.name("name").value(treemap.getName());
+        out.name("suffix").value(treemap.getSuffix());
+        out.name("color").value(treemap.getColor());
+        out.name("code").value(treemap.getCode());
+        out.name("isEmpty").value(treemap.isEmpty());
+        out.name("sizeA").value(treemap.getSizeA());
+        out.name("sizeB").value(treemap.getSizeB());
+        out.name("delta").value(treemap.getDelta());
+
+        out.endObject();
+    }
+
+    /**
+     * Reading treemaps is not supported.
+     *
+     * @param in The JSON stream.
+     * @return Nothing.
+     */
+    @Override
+    public Treemap read(JsonReader in) {
+        throw new UnsupportedOperationException("Reading treemaps is not supported!");
+    }
+}
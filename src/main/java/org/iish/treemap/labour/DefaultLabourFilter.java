@@ -3,9 +3,11 @@ package org.iish.treemap.labour;
 import org.iish.treemap.model.filter.TabularDataFilter;
 import org.iish.treemap.model.tabular.FilteredTabularData;
 import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.Utils;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Default filter for labour relations datasets.
@@ -32,30 +34,155 @@ public class DefaultLabourFilter implements TabularDataFilter {
 
     /**
      * Filters the given dataset.
+     * Both passes run in parallel; the closest years are accumulated per thread and merged afterwards,
+     * which yields the same result regardless of how the rows were split over the threads.
      *
      * @param data The dataset.
      * @return The filtered dataset.
      */
     @Override
     public TabularData filter(TabularData data) {
-        Map<String, Map<String, String>> timePeriodsForCountries = new HashMap<>();
-        data.getRows().parallelStream()
-                .collect(Collectors.groupingBy(rowIndex -> data.getValue(countryColumn, rowIndex)))
-                .forEach((country, rows) -> {
-                    FilteredTabularData countryData = new FilteredTabularData(data, rows);
-                    timePeriodsForCountries.put(country, timePeriods.getTimePeriodsFor(countryData, false));
-                });
-
-        List<Integer> rows = data.getRows().stream()
-                .filter(rowIndex -> {
-                    String country = data.getValue(countryColumn, rowIndex);
-                    String year = data.getValue(yearColumn, rowIndex);
+        List<TimePeriod> periods = timePeriods.getTimePeriods();
+
+        ClosestYears closestYears = IntStream.range(0, data.getSize()).parallel().collect(
+                () -> new ClosestYears(periods),
+                (acc, rowIndex) -> acc.accept(data.getValue(countryColumn, rowIndex),
+                        Utils.getInteger(data.getValue(yearColumn, rowIndex)), rowIndex),
+                ClosestYears::combine);
 
-                    Collection<String> years = timePeriodsForCountries.getOrDefault(country, new HashMap<>()).values();
-                    return years.contains(year);
+        Map<String, Integer> countryIds = new HashMap<>();
+        long[] countryYears = closestYears.toLookupSet(countryIds);
+
+        List<Integer> rows = IntStream.range(0, data.getSize()).parallel()
+                .filter(rowIndex -> {
+                    Integer countryId = countryIds.get(data.getValue(countryColumn, rowIndex));
+                    Integer year = Utils.getInteger(data.getValue(yearColumn, rowIndex));
+                    return (countryId != null) && (year != null)
+                            && (Arrays.binarySearch(countryYears, toKey(countryId, year)) >= 0);
                 })
+                .boxed()
                 .collect(Collectors.toList());
 
         return new FilteredTabularData(data, rows);
     }
+
+    /**
+     * Combines a country id and a year into a single primitive key.
+     *
+     * @param countryId The country id.
+     * @param year      The year.
+     * @return The key.
+     */
+    private static long toKey(int countryId, int year) {
+        return ((long) countryId << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Accumulates, for each country and each time period, the year closest to that time period.
+     * Ties are resolved in favour of the lowest row index, just like a sequential scan would.
+     */
+    private static class ClosestYears {
+        private final List<TimePeriod> periods;
+        private final Map<String, Closest> countries;
+
+        private ClosestYears(List<TimePeriod> periods) {
+            this.periods = periods;
+            this.countries = new HashMap<>();
+        }
+
+        /**
+         * Takes a single row into account.
+         *
+         * @param country  The country of the row.
+         * @param year     The year of the row, or null if the row has no valid year.
+         * @param rowIndex The index of the row.
+         */
+        private void accept(String country, Integer year, int rowIndex) {
+            if (year == null)
+                return;
+
+            Closest closest = countries.computeIfAbsent(country, c -> new Closest(periods.size()));
+            for (int i = 0; i < periods.size(); i++)
+                closest.offer(i, year, Math.abs(periods.get(i).getTimePeriod() - year), rowIndex);
+        }
+
+        /**
+         * Merges the results of another accumulator into this accumulator.
+         *
+         * @param other The other accumulator.
+         */
+        private void combine(ClosestYears other) {
+            other.countries.forEach((country, otherClosest) -> {
+                Closest closest = countries.get(country);
+                if (closest == null) {
+                    countries.put(country, otherClosest);
+                }
+                else {
+                    for (int i = 0; i < periods.size(); i++) {
+                        if (otherClosest.rows[i] >= 0)
+                            closest.offer(i, otherClosest.years[i], otherClosest.differences[i], otherClosest.rows[i]);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Assigns an id to each country and returns the sorted (country id, year) keys of all years to keep.
+         * Only closest years that fall within their time period are kept.
+         *
+         * @param countryIds The map to fill with the id of each country.
+         * @return The sorted keys.
+         */
+        private long[] toLookupSet(Map<String, Integer> countryIds) {
+            long[] keys = new long[countries.size() * periods.size()];
+            int size = 0;
+            for (Map.Entry<String, Closest> entry : countries.entrySet()) {
+                int countryId = countryIds.size();
+                countryIds.put(entry.getKey(), countryId);
+
+                Closest closest = entry.getValue();
+                for (int i = 0; i < periods.size(); i++) {
+                    if ((closest.rows[i] >= 0) && periods.get(i).isWithinTimePeriod(closest.years[i]))
+                        keys[size++] = toKey(countryId, closest.years[i]);
+                }
+            }
+
+            keys = Arrays.copyOf(keys, size);
+            Arrays.sort(keys);
+            return keys;
+        }
+    }
+
+    /**
+     * The closest year for each time period of a single country.
+     */
+    private static class Closest {
+        private final int[] years;
+        private final int[] differences;
+        private final int[] rows;
+
+        private Closest(int noPeriods) {
+            this.years = new int[noPeriods];
+            this.differences = new int[noPeriods];
+            this.rows = new int[noPeriods];
+            Arrays.fill(this.rows, -1);
+        }
+
+        /**
+         * Offers a year for the given time period; it is kept if it is closer than the current year.
+         *
+         * @param period     The index of the time period.
+         * @param year       The year.
+         * @param difference The difference between the year and the time period.
+         * @param rowIndex   The index of the row with the year.
+         */
+        private void offer(int period, int year, int difference, int rowIndex) {
+            if ((rows[period] < 0) || (difference < differences[period])
+                    || ((difference == differences[period]) && (rowIndex < rows[period]))) {
+                years[period] = year;
+                differences[period] = difference;
+                rows[period] = rowIndex;
+            }
+        }
+    }
 }
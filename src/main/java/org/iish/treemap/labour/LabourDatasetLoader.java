@@ -0,0 +1,572 @@
+package org.iish.treemap.labour;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.dataset.DataverseApiClient;
+import org.iish.treemap.dataset.DataverseFile;
+import org.iish.treemap.dataset.DataverseFileListing;
+import org.iish.treemap.dataset.DataverseFileListings;
+import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads labour relation datasets from Dataverse into the cache of datasets.
+ * Loading runs as a pipeline: the files are downloaded asynchronously from Dataverse into temporary files,
+ * with at most the configured number of downloads at a time and no thread waiting on a download,
+ * after which the downloaded files are parsed by a bounded thread pool,
+ * so that multiple files are loaded concurrently without loading more files at a time than configured.
+ * Concurrent loads of the same file share a single download and parse.
+ * The temporary file of a download is deleted as soon as neither the parse nor a read of its headers needs it.
+ * Loads in the background, such as prefetches, have a lower priority: their downloads only start when no download
+ * for a request is waiting, and their parses only when no parse for a request is waiting, running on a thread
+ * of minimal priority. A load in the background joined by a request waiting for the dataset is promoted
+ * for its stages not yet queued, and its parse is recorded in the timings of that request if not yet started.
+ * <p>
+ * The datasets are cached by the checksum of their file, e.g. 'MD5:...', so that identical files share
+ * a single parsed dataset. The checksum of a file is taken from the listing of its dataset in Dataverse,
+ * or computed from the downloaded file if not listed. Whenever a listing shows a different checksum
+ * for a file than the one it was loaded with, the file was replaced and its stale dataset is invalidated.
+ * A listing is checked for replaced files whenever it is cached.
+ */
+@Singleton
+public class LabourDatasetLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LabourDatasetLoader.class);
+
+    private final Config config;
+    private final LabourRelations labourRelations;
+    private final TimePeriods timePeriods;
+    private final DataverseApiClient dataverseApiClient;
+    private final DataverseFileListings dataverseFileListings;
+    private final Cache<String, TabularData> cache;
+    private final Cache<String, String> checksums;
+    private final Metrics metrics;
+    private final CacheStatistics cacheStatistics;
+    private final MemoryAccounting memoryAccounting;
+    private final Semaphore downloadPermits;
+    private final Queue<QueuedDownload> queuedDownloads = new ConcurrentLinkedQueue<>();
+    private final ExecutorService parseExecutor;
+    private final AtomicLong parseSequence = new AtomicLong();
+    private final ConcurrentMap<String, Load> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the loader of labour relation datasets.
+     *
+     * @param config                The configuration to use.
+     * @param labourRelations       The labour relations to use.
+     * @param timePeriods           The time periods to use.
+     * @param dataverseApiClient    The Dataverse API client to use.
+     * @param dataverseFileListings The cache of the listings of the files in Dataverse.
+     * @param cache                 The cache holding datasets by checksum.
+     * @param metrics               The metrics to record the stages in.
+     * @param cacheStatistics       The registry of caches with statistics.
+     * @param memoryAccounting      The memory accounting to check after caching a dataset.
+     */
+    @Inject
+    public LabourDatasetLoader(Config config, LabourRelations labourRelations, TimePeriods timePeriods,
+                               DataverseApiClient dataverseApiClient, DataverseFileListings dataverseFileListings,
+                               Cache<String, TabularData> cache, Metrics metrics, CacheStatistics cacheStatistics,
+                               MemoryAccounting memoryAccounting) {
+        this.config = config;
+        this.labourRelations = labourRelations;
+        this.timePeriods = timePeriods;
+        this.dataverseApiClient = dataverseApiClient;
+        this.dataverseFileListings = dataverseFileListings;
+        this.cache = cache;
+        this.checksums = CacheBuilder.newBuilder()
+                .expireAfterAccess(config.cache.maxHoursAccessTime, TimeUnit.HOURS)
+                .build();
+        this.metrics = metrics;
+        this.cacheStatistics = cacheStatistics;
+        this.memoryAccounting = memoryAccounting;
+
+        int maxParallelDownloads = (config.dataverse.maxParallelDownloads > 0)
+                ? config.dataverse.maxParallelDownloads : 4;
+        int maxParallelParses = (config.dataverse.maxParallelParses > 0)
+                ? config.dataverse.maxParallelParses : Runtime.getRuntime().availableProcessors();
+
+        LOGGER.info("Loading datasets with at most {} parallel downloads and {} parallel parses.",
+                maxParallelDownloads, maxParallelParses);
+
+        this.downloadPermits = new Semaphore(maxParallelDownloads);
+        this.parseExecutor = new ThreadPoolExecutor(maxParallelParses, maxParallelParses,
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), new ThreadFactoryBuilder()
+                .setNameFormat("dataset-parse-%d")
+                .setDaemon(true)
+                .build());
+
+        dataverseFileListings.addListener(this::invalidateReplacedFiles);
+    }
+
+    /**
+     * Returns the checksum of the file with the given id, by which its dataset is cached:
+     * the checksum in the cached listing of its dataset, or else the checksum the file was loaded with.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return The checksum of the file, or null if unknown.
+     */
+    public String getChecksum(String fileId) {
+        DataverseFile file = dataverseFileListings.getFile(Long.parseLong(fileId));
+        if ((file != null) && (file.getChecksum() != null))
+            return file.getChecksum();
+        return checksums.getIfPresent(fileId);
+    }
+
+    /**
+     * Resolves the checksum of the file with the given id, by which its dataset is cached.
+     * If the checksum is unknown, the file is loaded in the background, or the load already in flight is joined,
+     * and the checksum is resolved as soon as the file is downloaded.
+     * Only the download is recorded in the timings of the request handled by the current thread, if any,
+     * as the request does not wait for the dataset to be parsed.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return A future with the checksum of the file,
+     * completed exceptionally with a DataverseException when the file could not be obtained.
+     */
+    public CompletableFuture<String> resolveChecksum(String fileId) {
+        String checksum = getChecksum(fileId);
+        if (checksum != null)
+            return CompletableFuture.completedFuture(checksum);
+
+        return getLoad(fileId, metrics.getRequestTimings(), null, true).checksum;
+    }
+
+    /**
+     * Returns the cached dataset of the file with the given id.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return The dataset, or null if not cached or if the checksum of the file is unknown.
+     */
+    public TabularData getIfCached(String fileId) {
+        String checksum = getChecksum(fileId);
+        return (checksum != null) ? cache.getIfPresent(checksum) : null;
+    }
+
+    /**
+     * Returns whether the dataset of the file with the given id is cached, without counting it as a lookup.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return Whether the dataset is cached.
+     */
+    public boolean isCached(String fileId) {
+        String checksum = getChecksum(fileId);
+        return (checksum != null) && cache.asMap().containsKey(checksum);
+    }
+
+    /**
+     * Loads the dataset of the file with the given id from Dataverse and caches it,
+     * or joins the load of the file already in flight.
+     * The stages are recorded in the timings of the request handled by the current thread, if any.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return A future with the dataset, completed exceptionally with a DataverseException
+     * when the file could not be obtained, or with an XlsxException or IOException when it could not be parsed.
+     */
+    public CompletableFuture<TabularData> load(String fileId) {
+        RequestTimings timings = metrics.getRequestTimings();
+        return getLoad(fileId, timings, timings, false).data;
+    }
+
+    /**
+     * Loads the dataset of the file with the given id from Dataverse in the background and caches it,
+     * with a lower priority than the loads for requests, or joins the load of the file already in flight.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return A future with the dataset, completed exceptionally when the file could not be obtained or parsed.
+     */
+    public CompletableFuture<TabularData> loadInBackground(String fileId) {
+        return getLoad(fileId, null, null, true).data;
+    }
+
+    /**
+     * Returns the headers of the dataset of the file with the given id, including the virtual columns,
+     * by reading only the header row once the file is downloaded.
+     * The file is loaded into the cache of datasets in the background, or the load already in flight is joined.
+     * Only the download and the reading of the headers are recorded in the timings of the request
+     * handled by the current thread, if any, as the request does not wait for the dataset to be parsed.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @return A future with the headers, completed exceptionally with a DataverseException
+     * when the file could not be obtained, or with an XlsxException or IOException when it could not be parsed.
+     */
+    public CompletableFuture<Set<String>> loadHeaders(String fileId) {
+        RequestTimings timings = metrics.getRequestTimings();
+        Load load = getLoad(fileId, timings, null, true);
+
+        // The load completed and released its downloaded file in the meantime, so take the headers of the dataset
+        if (!load.retainDownload())
+            return load.data.thenApply(TabularData::getHeaders);
+
+        return load.download.thenApply(path -> {
+            try (Metrics.Timer timer = metrics.time(Metrics.XLSX, timings)) {
+                timer.setDataset(fileId);
+                timer.setDetail("headers");
+                return new LabourRelationsXlsxReader(config, labourRelations, timePeriods, path.toFile()).getHeaders();
+            }
+            catch (XlsxException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((headers, e) -> releaseDownload(load));
+    }
+
+    /**
+     * Invalidates the datasets of the files that were replaced according to the given listing,
+     * as their listed checksum differs from the checksum they were loaded with.
+     *
+     * @param listing The listing of the files of a dataset.
+     */
+    private void invalidateReplacedFiles(DataverseFileListing listing) {
+        for (DataverseFile file : listing.getAllFiles()) {
+            String fileId = String.valueOf(file.getId());
+            String loadedChecksum = checksums.getIfPresent(fileId);
+            if ((file.getChecksum() == null) || (loadedChecksum == null) || loadedChecksum.equals(file.getChecksum()))
+                continue;
+
+            LOGGER.info("File {} was replaced in version {} of its dataset; invalidating the dataset of {}.",
+                    fileId, file.getVersion(), loadedChecksum);
+            checksums.invalidate(fileId);
+            if (!checksums.asMap().containsValue(loadedChecksum))
+                cache.invalidate(loadedChecksum);
+        }
+    }
+
+    /**
+     * Returns the load of the file with the given id in flight, or starts loading the file.
+     * A load in the background joined by a load for a request is promoted,
+     * and records its parse in the timings of that request if it has none yet.
+     *
+     * @param fileId          The id of the file in Dataverse.
+     * @param downloadTimings The timings of the request to record the download in, or null.
+     * @param parseTimings    The timings of the request to record the parse in, or null.
+     * @param background      Whether the file is loaded in the background.
+     * @return The load of the file.
+     */
+    private Load getLoad(String fileId, RequestTimings downloadTimings, RequestTimings parseTimings,
+                         boolean background) {
+        Load load = inFlight.computeIfAbsent(fileId, key -> startLoad(key, downloadTimings,
+                new AtomicReference<>(parseTimings), new AtomicBoolean(background)));
+        if (!background)
+            load.background.set(false);
+        if (parseTimings != null)
+            load.parseTimings.compareAndSet(null, parseTimings);
+        load.data.whenComplete((data, e) -> inFlight.remove(fileId, load));
+        return load;
+    }
+
+    /**
+     * Starts downloading and parsing the file with the given id.
+     * If a file with the same checksum is cached already, its dataset is shared instead of parsed again.
+     *
+     * @param fileId          The id of the file in Dataverse.
+     * @param downloadTimings The timings of the request to record the download in, or null.
+     * @param parseTimings    The timings of the request to record the parse in, holding null if none.
+     * @param background      Whether the file is loaded in the background, for as long as it is not promoted.
+     * @return The load of the file.
+     */
+    private Load startLoad(String fileId, RequestTimings downloadTimings,
+                           AtomicReference<RequestTimings> parseTimings, AtomicBoolean background) {
+        long start = System.nanoTime();
+        CompletableFuture<Path> download = download(fileId, downloadTimings, background);
+        CompletableFuture<String> checksum = download.thenApply(path -> {
+            String computed = computeChecksum(fileId, path);
+            checksums.put(fileId, computed);
+            return computed;
+        });
+        CompletableFuture<TabularData> data = checksum.thenCombineAsync(download, (key, path) -> {
+            // Not counted as a lookup, as the request starting the load counted its miss already
+            TabularData dataset = cache.asMap().get(key);
+            if (dataset == null) {
+                dataset = parse(fileId, path, parseTimings.get());
+                cache.put(key, dataset);
+                cacheStatistics.recordLoad(CacheStatistics.DATASETS, System.nanoTime() - start);
+                memoryAccounting.checkBudget();
+            }
+            return dataset;
+        }, task -> parseExecutor.execute(new ParseTask(task, background.get(), parseSequence.incrementAndGet())));
+
+        Load load = new Load(download, checksum, data, parseTimings, background);
+        data.whenComplete((dataset, e) -> releaseDownload(load));
+        return load;
+    }
+
+    /**
+     * Releases the downloaded file of the given load for one of its users,
+     * and deletes the file once it is released by all of them.
+     *
+     * @param load The load of the file.
+     */
+    private static void releaseDownload(Load load) {
+        if (load.downloadUsers.decrementAndGet() > 0)
+            return;
+
+        load.download.thenAccept(path -> {
+            try {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Failed to delete the downloaded file {}.", path, e);
+            }
+        });
+    }
+
+    /**
+     * Queues the download of the file with the given id, which starts as soon as
+     * fewer than the configured number of downloads are running.
+     *
+     * @param fileId     The id of the file in Dataverse.
+     * @param timings    The timings of the request to record the download in, or null.
+     * @param background Whether the file is downloaded in the background.
+     * @return A future with the path of the downloaded file.
+     */
+    private CompletableFuture<Path> download(String fileId, RequestTimings timings, AtomicBoolean background) {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        queuedDownloads.add(new QueuedDownload(background, () -> {
+            Metrics.Timer timer = metrics.time(Metrics.DATAVERSE, timings);
+            timer.setDataset(fileId);
+            dataverseApiClient.getFileByIdAsync(Long.parseLong(fileId)).whenComplete((path, e) -> {
+                timer.close();
+                downloadPermits.release();
+                startQueuedDownloads();
+
+                if (e != null)
+                    future.completeExceptionally((e instanceof CompletionException) ? e.getCause() : e);
+                else
+                    future.complete(path);
+            });
+        }));
+        startQueuedDownloads();
+        return future;
+    }
+
+    /**
+     * Starts the queued downloads for which a download permit is available.
+     */
+    private void startQueuedDownloads() {
+        while (!queuedDownloads.isEmpty() && downloadPermits.tryAcquire()) {
+            QueuedDownload download = pollQueuedDownload();
+            if (download != null)
+                download.start.run();
+            else
+                downloadPermits.release();
+        }
+    }
+
+    /**
+     * Removes the next download to start from the queue: the first download for a request,
+     * or the first download in the background if no download for a request is waiting.
+     *
+     * @return The next download, or null if no download is waiting.
+     */
+    private QueuedDownload pollQueuedDownload() {
+        for (QueuedDownload download : queuedDownloads) {
+            if (!download.background.get() && queuedDownloads.remove(download))
+                return download;
+        }
+        return queuedDownloads.poll();
+    }
+
+    /**
+     * Returns the checksum to cache the downloaded file with the given id by: the checksum listed by Dataverse,
+     * or the MD5 checksum of the downloaded file if none is listed.
+     * A listed checksum is verified against the downloaded file, but a mismatch is only logged,
+     * as the listed checksum is the one the dataset is looked up by.
+     *
+     * @param fileId The id of the file in Dataverse.
+     * @param path   The path of the downloaded file.
+     * @return The checksum of the downloaded file.
+     */
+    private String computeChecksum(String fileId, Path path) {
+        DataverseFile file = dataverseFileListings.getFile(Long.parseLong(fileId));
+        String listedChecksum = (file != null) ? file.getChecksum() : null;
+        String algorithm = (listedChecksum != null)
+                ? listedChecksum.substring(0, listedChecksum.indexOf(':')) : "MD5";
+
+        try (DigestInputStream inputStream =
+                     new DigestInputStream(Files.newInputStream(path), MessageDigest.getInstance(algorithm))) {
+            ByteStreams.exhaust(inputStream);
+
+            String checksum = algorithm.toUpperCase(Locale.ROOT) + ":"
+                    + BaseEncoding.base16().lowerCase().encode(inputStream.getMessageDigest().digest());
+            if (listedChecksum == null)
+                return checksum;
+
+            if (!listedChecksum.equals(checksum))
+                LOGGER.warn("File {} has checksum {}, which does not match its listed checksum {}; " +
+                        "caching it by its listed checksum.", fileId, checksum, listedChecksum);
+            return listedChecksum;
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Parses the downloaded file with the given id.
+     *
+     * @param fileId  The id of the file in Dataverse.
+     * @param path    The path of the downloaded file.
+     * @param timings The timings of the request to record the stages in, or null.
+     * @return The dataset.
+     */
+    private TabularData parse(String fileId, Path path, RequestTimings timings) {
+        LabourRelationsXlsxReader xlsxReader =
+                new LabourRelationsXlsxReader(config, labourRelations, timePeriods, path.toFile());
+        TabularData data;
+        try (Metrics.Timer timer = metrics.time(Metrics.XLSX, timings)) {
+            data = xlsxReader.getData();
+            timer.setDataset(fileId);
+            timer.setRows(xlsxReader.getNoRowsRead(), data.getSize());
+        }
+        catch (XlsxException e) {
+            throw new CompletionException(e);
+        }
+
+        metrics.record(Metrics.DERIVE, timings, fileId, xlsxReader.getDerivationNanos(),
+                data.getSize(), data.getSize());
+        return data;
+    }
+
+    /**
+     * A load of a file in flight.
+     */
+    private static class Load {
+        private final CompletableFuture<Path> download;
+        private final CompletableFuture<String> checksum;
+        private final CompletableFuture<TabularData> data;
+        private final AtomicReference<RequestTimings> parseTimings;
+        private final AtomicBoolean background;
+        private final AtomicInteger downloadUsers = new AtomicInteger(1);
+
+        /**
+         * Creates a load of a file, of which the parse is the first user of the downloaded file.
+         *
+         * @param download     The future with the path of the downloaded file.
+         * @param checksum     The future with the checksum the dataset is cached by.
+         * @param data         The future with the parsed dataset.
+         * @param parseTimings The timings of the request to record the parse in, holding null if none.
+         * @param background   Whether the file is loaded in the background.
+         */
+        private Load(CompletableFuture<Path> download, CompletableFuture<String> checksum,
+                     CompletableFuture<TabularData> data, AtomicReference<RequestTimings> parseTimings,
+                     AtomicBoolean background) {
+            this.download = download;
+            this.checksum = checksum;
+            this.data = data;
+            this.parseTimings = parseTimings;
+            this.background = background;
+        }
+
+        /**
+         * Registers another user of the downloaded file, unless the file was released by all its users already.
+         *
+         * @return Whether the downloaded file can still be used.
+         */
+        private boolean retainDownload() {
+            int users;
+            do {
+                users = downloadUsers.get();
+                if (users == 0)
+                    return false;
+            } while (!downloadUsers.compareAndSet(users, users + 1));
+            return true;
+        }
+    }
+
+    /**
+     * A download waiting for a download permit.
+     */
+    private static class QueuedDownload {
+        private final AtomicBoolean background;
+        private final Runnable start;
+
+        /**
+         * Creates a waiting download.
+         *
+         * @param background Whether the file is downloaded in the background.
+         * @param start      Starts the download.
+         */
+        private QueuedDownload(AtomicBoolean background, Runnable start) {
+            this.background = background;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A parse waiting for a thread of the parse pool, ordered after the parses for requests if in the background,
+     * and otherwise in the order queued.
+     */
+    private static class ParseTask implements Runnable, Comparable<ParseTask> {
+        private final Runnable task;
+        private final boolean background;
+        private final long sequence;
+
+        /**
+         * Creates a waiting parse.
+         *
+         * @param task       The parse.
+         * @param background Whether the file is parsed in the background.
+         * @param sequence   The order in which the parse was queued.
+         */
+        private ParseTask(Runnable task, boolean background, long sequence) {
+            this.task = task;
+            this.background = background;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Runs the parse, on a thread of minimal priority if in the background.
+         */
+        @Override
+        public void run() {
+            if (!background) {
+                task.run();
+                return;
+            }
+
+            Thread thread = Thread.currentThread();
+            int priority = thread.getPriority();
+            thread.setPriority(Thread.MIN_PRIORITY);
+            try {
+                task.run();
+            }
+            finally {
+                thread.setPriority(priority);
+            }
+        }
+
+        /**
+         * Orders the parses for requests before the parses in the background, and otherwise in the order queued.
+         *
+         * @param other The other parse.
+         * @return A negative number if this parse runs first, a positive number otherwise.
+         */
+        @Override
+        public int compareTo(ParseTask other) {
+            if (background != other.background)
+                return background ? 1 : -1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.iish.treemap.labour;
+
+import org.iish.treemap.config.Config;
+import org.iish.treemap.dataset.DataverseFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Speculatively loads the files of a dataset into the cache of datasets in the background, once its files are listed,
+ * as a treemap of one of the files is usually requested next.
+ * The files are loaded in the background by the dataset loader, so their downloads and parses give way
+ * to the ones for requests, at most a few files at a time, and files are only queued while the total size
+ * of the files waiting to be loaded stays within the configured limit, so that live requests are not starved.
+ * A request for a file being prefetched joins and promotes the load in flight.
+ */
+@Singleton
+public class LabourDatasetPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LabourDatasetPrefetcher.class);
+
+    private final LabourDatasetLoader datasetLoader;
+    private final boolean enabled;
+    private final int maxParallel;
+    private final long maxBytes;
+    private final Queue<DataverseFile> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * Creates the prefetcher of labour relation datasets.
+     *
+     * @param config        The configuration to use.
+     * @param datasetLoader The loader of the datasets.
+     */
+    @Inject
+    public LabourDatasetPrefetcher(Config config, LabourDatasetLoader datasetLoader) {
+        this.datasetLoader = datasetLoader;
+        this.enabled = (config.prefetch != null) && config.prefetch.enabled;
+
+        this.maxParallel = (enabled && (config.prefetch.maxParallel > 0)) ? config.prefetch.maxParallel : 1;
+        long maxMegabytes = (enabled && (config.prefetch.maxMegabytes > 0)) ? config.prefetch.maxMegabytes : 100;
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+
+        if (enabled)
+            LOGGER.info("Prefetching the files of listed datasets, {} at a time, up to {} MB at a time.",
+                    maxParallel, maxMegabytes);
+    }
+
+    /**
+     * Queues the given files to be loaded in the background, if prefetching is enabled.
+     * Files already cached or queued, files of unknown size, and files that do not fit
+     * within the limit of the total size of the files waiting are skipped.
+     *
+     * @param files The files.
+     */
+    public void prefetch(Collection<DataverseFile> files) {
+        if (!enabled)
+            return;
+
+        for (DataverseFile file : files) {
+            String fileId = String.valueOf(file.getId());
+            long size = file.getSize();
+            if ((size < 0) || datasetLoader.isCached(fileId) || !pending.add(fileId))
+                continue;
+
+            if (pendingBytes.addAndGet(size) > maxBytes) {
+                pendingBytes.addAndGet(-size);
+                pending.remove(fileId);
+                continue;
+            }
+
+            queued.add(file);
+        }
+        startQueuedLoads();
+    }
+
+    /**
+     * Starts loading the queued files in the background, for as long as fewer than the configured number
+     * of files are loading.
+     */
+    private void startQueuedLoads() {
+        while (!queued.isEmpty()) {
+            int current = running.get();
+            if (current >= maxParallel)
+                return;
+            if (!running.compareAndSet(current, current + 1))
+                continue;
+
+            DataverseFile file = queued.poll();
+            if (file == null) {
+                running.decrementAndGet();
+                continue;
+            }
+
+            String fileId = String.valueOf(file.getId());
+            CompletableFuture<?> load = datasetLoader.isCached(fileId)
+                    ? CompletableFuture.completedFuture(null)
+                    : datasetLoader.loadInBackground(fileId);
+            load.whenComplete((data, e) -> {
+                if (e != null)
+                    LOGGER.warn("Failed to prefetch file {}.", fileId,
+                            (e instanceof CompletionException) ? e.getCause() : e);
+
+                pendingBytes.addAndGet(-file.getSize());
+                pending.remove(fileId);
+                running.decrementAndGet();
+                startQueuedLoads();
+            });
+        }
+    }
+}
@@ -26,6 +26,8 @@ public class LabourRelationsXlsxReader {
     private LabourRelations labourRelations;
     private TimePeriods timePeriods;
     private XlsxReader xlsxReader;
+    private long noRowsRead;
+    private long derivationNanos;
 
     /**
      * Builds an XLSX reader for the given labour relation information and data set.
@@ -88,6 +90,7 @@ public class LabourRelationsXlsxReader {
         List<String> defaults = new ArrayList<>();
 
         xlsxReader.read((XlsxReader.Row row) -> {
+            noRowsRead++;
             if (row.index == 0) {
                 setHeaders(row, headers);
                 defaults.addAll(Collections.nCopies(row.lastColNumber, null));
@@ -103,6 +106,38 @@ public class LabourRelationsXlsxReader {
         return new TabularData(headers, data);
     }
 
+    /**
+     * Returns the headers of the data set, including the virtual columns, by reading only the header row.
+     *
+     * @return The headers of the data set.
+     * @throws XlsxException On failure to parse the Excel file.
+     */
+    public Set<String> getHeaders() throws XlsxException {
+        Map<String, Integer> headers = new HashMap<>();
+        XlsxReader.Row row = xlsxReader.readFirstRow();
+        if ((row != null) && (row.index == 0))
+            setHeaders(row, headers);
+        return headers.keySet();
+    }
+
+    /**
+     * Returns the number of rows read from the Excel file, including the header rows and the skipped rows.
+     *
+     * @return The number of rows read.
+     */
+    public long getNoRowsRead() {
+        return noRowsRead;
+    }
+
+    /**
+     * Returns the time spent deriving the virtual columns of all rows read.
+     *
+     * @return The time spent in nanoseconds.
+     */
+    public long getDerivationNanos() {
+        return derivationNanos;
+    }
+
     /**
      * Reads the headers from the Excel file and creates new headers.
      *
@@ -147,6 +182,7 @@ public class LabourRelationsXlsxReader {
                         rowData.set(cell.cellReference.getCol(), getValue(cell.value));
                 });
 
+                long start = System.nanoTime();
                 List<String> labourRelationsColumns = Arrays.asList(
                         config.labour.xlsx.columns.labourRelationLevel1,
                         config.labour.xlsx.columns.labourRelationLevel2,
@@ -172,6 +208,7 @@ public class LabourRelationsXlsxReader {
 
                 XlsxReader.Cell countryCell = row.cells.get(headers.get(config.labour.xlsx.columns.country));
                 rowData.add(config.countriesToContinent.getOrDefault(getValue(countryCell.value), null));
+                derivationNanos += System.nanoTime() - start;
 
                 return true;
             }
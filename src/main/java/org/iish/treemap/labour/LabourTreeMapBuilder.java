@@ -1,15 +1,15 @@
 package org.iish.treemap.labour;
 
-import com.google.common.cache.Cache;
 import org.iish.treemap.config.Config;
 import org.iish.treemap.config.StandardDataset;
-import org.iish.treemap.dataset.DataverseApiClient;
 import org.iish.treemap.dataset.DataverseException;
 import org.iish.treemap.dataset.DataverseFile;
+import org.iish.treemap.dataset.DataverseFileListings;
 import org.iish.treemap.model.treemap.*;
 import org.iish.treemap.model.filter.*;
 import org.iish.treemap.model.tabular.MultiTabularData;
 import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.Metrics;
 import org.iish.treemap.util.Utils;
 import org.iish.treemap.util.XlsxException;
 import spark.Request;
@@ -17,8 +17,10 @@ import spark.Request;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -28,129 +30,399 @@ import java.util.stream.Collectors;
 public class LabourTreeMapBuilder {
     private static final String LABOUR_RELATIONS_DATASET_CONTENT_TYPE =
             "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String STANDARD_DATASET_ATTRIBUTE = "treemap.standardDataset";
 
     private Config config;
     private StandardDataset standardDataset;
-    private DataverseApiClient dataverseApiClient;
+    private DataverseFileListings dataverseFileListings;
+    private LabourDatasetLoader datasetLoader;
+    private LabourDatasetPrefetcher datasetPrefetcher;
     private LabourRelations labourRelations;
     private TimePeriods timePeriods;
     private TotalPopulation totalPopulation;
-    private Cache<String, TabularData> cache;
+    private Metrics metrics;
 
     /**
      * Labour relations treemap builder.
      *
-     * @param config             The configuration to use.
-     * @param standardDataset    The standard dataset to use.
-     * @param dataverseApiClient The Dataverse API client to use.
-     * @param labourRelations    The labour relations to use.
-     * @param timePeriods        The time periods to use.
-     * @param totalPopulation    The total population to use.
-     * @param cache              The cache holding datasets.
+     * @param config                The configuration to use.
+     * @param standardDataset       The standard dataset to use.
+     * @param dataverseFileListings The cache of the listings of the files in Dataverse.
+     * @param datasetLoader         The loader of datasets missing from the cache.
+     * @param datasetPrefetcher     The prefetcher of the datasets of listed files.
+     * @param labourRelations       The labour relations to use.
+     * @param timePeriods           The time periods to use.
+     * @param totalPopulation       The total population to use.
+     * @param metrics               The metrics to record the stages in.
      */
     @Inject
-    public LabourTreeMapBuilder(Config config, StandardDataset standardDataset, DataverseApiClient dataverseApiClient,
-                                LabourRelations labourRelations, TimePeriods timePeriods,
-                                TotalPopulation totalPopulation, Cache<String, TabularData> cache) {
+    public LabourTreeMapBuilder(Config config, StandardDataset standardDataset,
+                                DataverseFileListings dataverseFileListings, LabourDatasetLoader datasetLoader,
+                                LabourDatasetPrefetcher datasetPrefetcher, LabourRelations labourRelations,
+                                TimePeriods timePeriods, TotalPopulation totalPopulation, Metrics metrics) {
         this.config = config;
         this.standardDataset = standardDataset;
-        this.dataverseApiClient = dataverseApiClient;
+        this.dataverseFileListings = dataverseFileListings;
+        this.datasetLoader = datasetLoader;
+        this.datasetPrefetcher = datasetPrefetcher;
         this.labourRelations = labourRelations;
         this.timePeriods = timePeriods;
         this.totalPopulation = totalPopulation;
-        this.cache = cache;
+        this.metrics = metrics;
     }
 
     /**
-     * Returns the available datasets for the given PID.
+     * Returns the available datasets for the given PID, and prefetches them if enabled.
      *
      * @param request The request with the PID.
      * @return The set of files.
      * @throws DataverseException When unable to obtain the datasets information from Dataverse.
      */
     public Set<DataverseFile> getFiles(Request request) throws DataverseException {
-        return dataverseApiClient.getFilesForPid(request.queryParams("pid"), LABOUR_RELATIONS_DATASET_CONTENT_TYPE);
+        Set<DataverseFile> files =
+                dataverseFileListings.getFiles(request.queryParams("pid"), LABOUR_RELATIONS_DATASET_CONTENT_TYPE);
+        datasetPrefetcher.prefetch(files);
+        return files;
     }
 
     /**
      * Returns the columns for the dataset of the given request.
+     * The columns of a file not yet cached are read from its header row only,
+     * while the file is loaded into the cache of datasets in the background.
      *
      * @param request The request with the dataset URL.
      * @return The set of columns.
      * @throws LabourTreemapException When unable to parse the Excel dataset.
      */
     public Set<String> getColumns(Request request) throws LabourTreemapException {
-        TabularData data = getTabularData(request);
-        return data.getHeaders();
+        StandardDataset.Snapshot standard = getStandardDataset(request);
+        List<CompletableFuture<Set<String>>> futures = new ArrayList<>();
+        for (String fileId : getFileIds(request)) {
+            if (fileId.equalsIgnoreCase("dataset") && (standard.getDataset() != null)) {
+                futures.add(CompletableFuture.completedFuture(standard.getDataset().getHeaders()));
+            }
+            else if (fileId.matches("\\d+")) {
+                TabularData data = datasetLoader.getIfCached(fileId);
+                futures.add((data != null)
+                        ? CompletableFuture.completedFuture(data.getHeaders()) : datasetLoader.loadHeaders(fileId));
+            }
+        }
+
+        List<Set<String>> headers = join(futures);
+        if (headers.isEmpty())
+            throw new LabourTreemapException("No datasets requested!");
+
+        if (headers.size() == 1)
+            return headers.get(0);
+
+        return headers.stream().flatMap(Set::stream).collect(Collectors.toSet());
+    }
+
+    /**
+     * Returns the version of the datasets used by the given request, without waiting for the datasets.
+     * The version changes whenever the content of one of the datasets may have changed.
+     * The version of a file is its checksum; the download of the file is only awaited if its checksum is not
+     * listed and the file was not loaded before, so that the version is the same before and after loading.
+     *
+     * @param request The request.
+     * @return The version of the datasets.
+     * @throws LabourTreemapException When unable to obtain the checksum of a file from Dataverse.
+     */
+    public String getDatasetVersion(Request request) throws LabourTreemapException {
+        return getDatasetVersion(getAllFileIds(request), getStandardDataset(request));
+    }
+
+    /**
+     * Returns whether the datasets used by the given request can never change.
+     * Files obtained from Dataverse are immutable, the standard dataset may be replaced by an upload.
+     *
+     * @param request The request.
+     * @return Whether the datasets are immutable.
+     */
+    public boolean isImmutable(Request request) {
+        return getAllFileIds(request).stream().noneMatch(fileId -> fileId.equalsIgnoreCase("dataset"));
     }
 
     /**
      * Builds a treemap for the given request.
+     * If the request specifies a diff, a single treemap comparing both sides of the diff is build.
      *
      * @param request The treemap request.
      * @return The labour relations treemap information.
      * @throws LabourTreemapException When no treemap could be build.
      */
     public TreemapInfo getTreemap(Request request) throws LabourTreemapException {
-        TabularData data = getTabularData(request);
+        Map.Entry<String, String[]> diff = getDiff(request);
+        if (diff != null)
+            return getDiffTreemap(request, diff.getKey(), diff.getValue());
+
+        TabularData filteredData = getFilteredData(request, getFileIds(request));
+
+        FlatTreemap treemap;
+        try (Metrics.Timer timer = metrics.time(Metrics.BUILD_TREEMAP)) {
+            treemap = buildTreemap(request, filteredData);
+            timer.setRows(filteredData.getSize(), filteredData.getSize());
+            timer.setDetail(treemap.getNoNodes() + " nodes");
+        }
+
+        List<FilterInfo> filterInfo = buildFilterInfo(request, filteredData);
+
+        return new TreemapInfo(treemap, filterInfo, labourRelations.getLegend());
+    }
+
+    /**
+     * Builds a treemap for each time period for the given request.
+     * All treemaps are built in a single pass over the dataset.
+     *
+     * @param request The treemap request.
+     * @return The labour relations treemaps by time period.
+     * @throws LabourTreemapException When no treemaps could be build.
+     */
+    public PartitionedTreemapInfo getTreemapsByTimePeriod(Request request) throws LabourTreemapException {
+        TabularData filteredData = getFilteredData(request, getFileIds(request));
+
+        Map<String, FlatTreemap> treemaps;
+        try (Metrics.Timer timer = metrics.time(Metrics.BUILD_TREEMAP)) {
+            treemaps = createTreemapBuilder(request, filteredData)
+                    .getFlatTreeMaps(config.labour.treemap.rootLabel, config.labour.xlsx.virtualColumns.bmyear);
+            timer.setRows(filteredData.getSize(), filteredData.getSize());
+            timer.setDetail(treemaps.size() + " treemaps");
+        }
+
+        List<FilterInfo> filterInfo = buildFilterInfo(request, filteredData);
+
+        return new PartitionedTreemapInfo(treemaps, filterInfo, labourRelations.getLegend());
+    }
+
+    /**
+     * Builds a single treemap comparing two sides for the given request.
+     * Both sides are aggregated in a single pass over the dataset.
+     * The sides are either two values of a column, or two files when the column is 'file'.
+     *
+     * @param request The treemap request.
+     * @param column  The column to compare on.
+     * @param values  The values of both sides.
+     * @return The labour relations treemap information.
+     * @throws LabourTreemapException When no treemap could be build.
+     */
+    private TreemapInfo getDiffTreemap(Request request, String column, String[] values)
+            throws LabourTreemapException {
+        TabularData filteredData;
+        IntUnaryOperator side;
+
+        if (column.equals("file")) {
+            TabularData dataA = getFilteredData(request, Collections.singletonList(values[0]));
+            TabularData dataB = getFilteredData(request, Collections.singletonList(values[1]));
+
+            filteredData = new MultiTabularData(Arrays.asList(dataA, dataB));
+            side = rowIndex -> (rowIndex < dataA.getSize()) ? 0 : 1;
+        }
+        else {
+            TabularData data = getFilteredData(request, getFileIds(request));
+
+            filteredData = data;
+            side = rowIndex -> {
+                String value = data.getValue(column, rowIndex);
+                return values[0].equals(value) ? 0 : values[1].equals(value) ? 1 : -1;
+            };
+        }
+
+        FlatTreemap treemap;
+        try (Metrics.Timer timer = metrics.time(Metrics.BUILD_TREEMAP)) {
+            treemap = createTreemapBuilder(request, filteredData)
+                    .getFlatDiffTreeMap(config.labour.treemap.rootLabel, side);
+            timer.setRows(filteredData.getSize(), filteredData.getSize());
+            timer.setDetail(treemap.getNoNodes() + " nodes");
+        }
+
+        List<FilterInfo> filterInfo = buildFilterInfo(request, filteredData);
+
+        return new TreemapInfo(treemap, filterInfo, labourRelations.getLegend());
+    }
+
+    /**
+     * Returns the requested file ids.
+     *
+     * @param request The request.
+     * @return The file ids.
+     */
+    private List<String> getFileIds(Request request) {
+        String[] fileIds = request.queryParamsValues("file");
+        return (fileIds != null) ? Arrays.asList(fileIds) : Collections.emptyList();
+    }
+
+    /**
+     * Returns the requested file ids, including the files of both sides of a diff on files.
+     *
+     * @param request The request.
+     * @return The file ids.
+     */
+    private List<String> getAllFileIds(Request request) {
+        List<String> fileIds = new ArrayList<>(getFileIds(request));
+        String[] diffFileIds = request.queryParamsValues("diff:file");
+        if (diffFileIds != null)
+            fileIds.addAll(Arrays.asList(diffFileIds));
+        return fileIds;
+    }
+
+    /**
+     * Returns the snapshot of the standard dataset for the given request.
+     * The snapshot is taken once for each request and kept with the request,
+     * so that the version of the datasets of the request always belongs to the data it works on,
+     * even if a new standard dataset is uploaded while the request is handled.
+     *
+     * @param request The request.
+     * @return The snapshot of the standard dataset.
+     */
+    private StandardDataset.Snapshot getStandardDataset(Request request) {
+        StandardDataset.Snapshot snapshot = request.attribute(STANDARD_DATASET_ATTRIBUTE);
+        if (snapshot == null) {
+            snapshot = standardDataset.getSnapshot();
+            request.attribute(STANDARD_DATASET_ATTRIBUTE, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * If the request specifies a diff, then return the column and the values of both sides.
+     *
+     * @param request The treemap request.
+     * @return The column and the values of both sides, or null if no diff was requested.
+     * @throws LabourTreemapException When the diff is invalid.
+     */
+    private Map.Entry<String, String[]> getDiff(Request request) throws LabourTreemapException {
+        List<Map.Entry<String, String[]>> diffs = request.queryMap().toMap().entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith("diff:"))
+                .map(entry -> new AbstractMap.SimpleEntry<>(entry.getKey().substring(5), entry.getValue()))
+                .collect(Collectors.toList());
+
+        if (diffs.isEmpty())
+            return null;
+
+        if ((diffs.size() > 1) || (diffs.get(0).getValue().length != 2))
+            throw new LabourTreemapException("A diff requires a single column with exactly two values!");
+
+        return diffs.get(0);
+    }
+
+    /**
+     * Returns the dataset of the given request with the default filter, the extension
+     * and the filters of the request applied.
+     *
+     * @param request The treemap request.
+     * @param fileIds The ids of the files to obtain the dataset from.
+     * @return The filtered dataset.
+     * @throws LabourTreemapException When unable to obtain the dataset.
+     */
+    private TabularData getFilteredData(Request request, List<String> fileIds) throws LabourTreemapException {
+        StandardDataset.Snapshot standard = getStandardDataset(request);
+        TabularData data = getTabularData(fileIds, standard);
         Set<TabularDataFilter> filters = getRequestFilters(request);
+        String version = getDatasetVersion(fileIds, standard);
 
         DefaultLabourFilter defaultLabourFilter = new DefaultLabourFilter(
                 config.labour.xlsx.columns.year, config.labour.xlsx.columns.country, timePeriods);
-        TabularData defaultFilteredData = defaultLabourFilter.filter(data);
+        TabularData defaultFilteredData;
+        try (Metrics.Timer timer = metrics.time(Metrics.DEFAULT_FILTER)) {
+            defaultFilteredData = defaultLabourFilter.filter(data);
+            timer.setDataset(version);
+            timer.setRows(data.getSize(), defaultFilteredData.getSize());
+        }
+
+        TabularData extendedData;
+        try (Metrics.Timer timer = metrics.time(Metrics.EXTEND_DATA)) {
+            extendedData = extendData(request, version, defaultFilteredData);
+            timer.setDataset(version);
+            timer.setRows(defaultFilteredData.getSize(), extendedData.getSize());
+        }
 
-        TabularData extendedData = extendData(request, defaultFilteredData);
-        TabularData filteredData = filterData(filters, extendedData);
+        TabularData filteredData;
+        try (Metrics.Timer timer = metrics.time(Metrics.FILTER)) {
+            filteredData = filterData(version, filters, extendedData);
+            timer.setDataset(version);
+            timer.setRows(extendedData.getSize(), filteredData.getSize());
+            timer.setDetail(filters.size() + " filters");
+        }
 
-        Treemap treemap = buildTreemap(request, filteredData);
-        List<FilterInfo> filterInfo = buildFilterInfo(request, filteredData);
+        return filteredData;
+    }
 
-        return new TreemapInfo(treemap, filterInfo, labourRelations.getLegend());
+    /**
+     * Returns the version of the given datasets.
+     * The version changes whenever the content of one of the datasets may have changed.
+     *
+     * @param fileIds  The ids of the files of the datasets.
+     * @param standard The snapshot of the standard dataset.
+     * @return The version of the datasets.
+     * @throws LabourTreemapException When unable to obtain the checksum of a file from Dataverse.
+     */
+    private String getDatasetVersion(List<String> fileIds, StandardDataset.Snapshot standard)
+            throws LabourTreemapException {
+        List<CompletableFuture<String>> versions = new ArrayList<>();
+        for (String fileId : fileIds) {
+            if (fileId.equalsIgnoreCase("dataset"))
+                versions.add(CompletableFuture.completedFuture(fileId + "@" + standard.getVersion()));
+            else if (fileId.matches("\\d+"))
+                versions.add(datasetLoader.resolveChecksum(fileId).thenApply(checksum -> fileId + "@" + checksum));
+            else
+                versions.add(CompletableFuture.completedFuture(fileId));
+        }
+        return String.join(",", join(versions));
     }
 
     /**
-     * Parse the given Excel file to a TabularData object.
+     * Parse the given Excel files to a TabularData object.
+     * The files missing from the cache are loaded concurrently; the datasets are combined in the order requested.
      *
-     * @param request The request with the URL where to find the Excel data.
-     * @return The parsed Excel file.
+     * @param fileIds  The ids of the files with the Excel data.
+     * @param standard The snapshot of the standard dataset.
+     * @return The parsed Excel files.
      * @throws LabourTreemapException When parsing failed.
      */
-    private TabularData getTabularData(Request request) throws LabourTreemapException {
-        try {
-            List<TabularData> datasets = new ArrayList<>();
-
-            for (String fileId : request.queryParamsValues("file")) {
-                TabularData data = cache.getIfPresent(fileId);
-                if (fileId.equalsIgnoreCase("dataset") && (standardDataset.getDataset() != null))
-                    data = standardDataset.getDataset();
-
-                if (data != null) {
-                    datasets.add(data);
-                }
-                else if (fileId.matches("\\d+")) {
-                    InputStream inputStream = dataverseApiClient.getFileById(new Long(fileId));
-                    LabourRelationsXlsxReader xlsxReader = new LabourRelationsXlsxReader(
-                            this.config, this.labourRelations, this.timePeriods, inputStream);
-                    data = xlsxReader.getData();
-                    cache.put(fileId, data);
-
-                    datasets.add(data);
-                }
+    private TabularData getTabularData(List<String> fileIds, StandardDataset.Snapshot standard)
+            throws LabourTreemapException {
+        List<CompletableFuture<TabularData>> futures = new ArrayList<>();
+        for (String fileId : fileIds) {
+            if (fileId.equalsIgnoreCase("dataset") && (standard.getDataset() != null)) {
+                futures.add(CompletableFuture.completedFuture(standard.getDataset()));
+            }
+            else if (fileId.matches("\\d+")) {
+                TabularData data = datasetLoader.getIfCached(fileId);
+                futures.add((data != null) ? CompletableFuture.completedFuture(data) : datasetLoader.load(fileId));
             }
+        }
 
-            if (datasets.isEmpty())
-                throw new LabourTreemapException("No datasets requested!");
+        List<TabularData> datasets = join(futures);
+        if (datasets.isEmpty())
+            throw new LabourTreemapException("No datasets requested!");
 
-            if (datasets.size() == 1)
-                return datasets.get(0);
+        if (datasets.size() == 1)
+            return datasets.get(0);
 
-            return new MultiTabularData(datasets);
-        }
-        catch (DataverseException e) {
-            throw new LabourTreemapException("Unable to obtain file from Dataverse", e);
+        return new MultiTabularData(datasets);
+    }
+
+    /**
+     * Waits for the given futures obtaining the datasets, or information on the datasets, in the given order.
+     *
+     * @param futures The futures.
+     * @param <T>     The type of the results.
+     * @return The results of the futures.
+     * @throws LabourTreemapException When unable to obtain or parse one of the Excel datasets.
+     */
+    private static <T> List<T> join(List<CompletableFuture<T>> futures) throws LabourTreemapException {
+        try {
+            List<T> results = new ArrayList<>();
+            for (CompletableFuture<T> future : futures)
+                results.add(future.join());
+            return results;
         }
-        catch (XlsxException | IOException e) {
-            throw new LabourTreemapException("Unable to parse Excel document", e);
+        catch (CompletionException e) {
+            if (e.getCause() instanceof DataverseException)
+                throw new LabourTreemapException("Unable to obtain file from Dataverse", e.getCause());
+            if ((e.getCause() instanceof XlsxException) || (e.getCause() instanceof IOException))
+                throw new LabourTreemapException("Unable to parse Excel document", e.getCause());
+            throw e;
         }
     }
 
@@ -197,10 +469,11 @@ public class LabourTreeMapBuilder {
      * Can only extend dataset if no filters (except on bmyear or continent) are applied.
      *
      * @param request     The request.
+     * @param version     The version of the data set.
      * @param tabularData The data set.
      * @return The extended dataset.
      */
-    private TabularData extendData(Request request, TabularData tabularData) {
+    private TabularData extendData(Request request, String version, TabularData tabularData) {
         String showTotalPopulation = request.queryParams("totalPopulation");
 
         if ((showTotalPopulation != null) && showTotalPopulation.equalsIgnoreCase("show")) {
@@ -216,7 +489,7 @@ public class LabourTreeMapBuilder {
                     })
                     .count();
             if (noFiltersApplied == 0) {
-                return totalPopulation.enrichDataset(tabularData);
+                return totalPopulation.enrichDataset(version, tabularData);
             }
         }
         return tabularData;
@@ -225,13 +498,20 @@ public class LabourTreeMapBuilder {
     /**
      * Apply the given filters on the dataset.
      *
+     * @param version The version of the data set.
      * @param filters The filters.
      * @param data    The data set.
      * @return The filtered dataset.
      */
-    private TabularData filterData(Set<TabularDataFilter> filters, TabularData data) {
+    private TabularData filterData(String version, Set<TabularDataFilter> filters, TabularData data) {
         for (TabularDataFilter filter : filters) {
-            data = filter.filter(data);
+            try (Metrics.Timer timer = metrics.trace(Metrics.REQUEST_FILTER)) {
+                TabularData filteredData = filter.filter(data);
+                timer.setDataset(version);
+                timer.setDetail(filter.toString());
+                timer.setRows(data.getSize(), filteredData.getSize());
+                data = filteredData;
+            }
         }
         return data;
     }
@@ -243,7 +523,18 @@ public class LabourTreeMapBuilder {
      * @param data    The data set.
      * @return The treemap.
      */
-    private Treemap buildTreemap(Request request, TabularData data) {
+    private FlatTreemap buildTreemap(Request request, TabularData data) {
+        return createTreemapBuilder(request, data).getFlatTreeMap(config.labour.treemap.rootLabel);
+    }
+
+    /**
+     * Creates a treemap builder configured for the given request.
+     *
+     * @param request The treemap request.
+     * @param data    The data set.
+     * @return The treemap builder.
+     */
+    private TreemapBuilder createTreemapBuilder(Request request, TabularData data) {
         List<String> hierarchy = Utils.filterOutEmpty(Arrays.asList(request.queryParamsValues("hierarchy")));
 
         TreemapBuilder treemapBuilder = new TreemapBuilder(data, hierarchy, request.queryParams("size"));
@@ -257,7 +548,7 @@ public class LabourTreeMapBuilder {
         if ((showMultiples != null) && showMultiples.equalsIgnoreCase("show"))
             treemapBuilder.setMultiples(config.labour.treemap.multiples);
 
-        return treemapBuilder.getTreeMap(config.labour.treemap.rootLabel);
+        return treemapBuilder;
     }
 
     /**
@@ -277,6 +568,10 @@ public class LabourTreeMapBuilder {
         filterInfoBuilder.setLabels(config.labour.treemap.labels);
         filterInfoBuilder.setTimePeriods(timePeriods);
 
-        return filterInfoBuilder.getFilterInfo(Utils.filterOutEmpty(filter));
+        try (Metrics.Timer timer = metrics.time(Metrics.BUILD_FILTER_INFO)) {
+            timer.setRows(data.getSize(), -1);
+            timer.setDetail(String.join(",", filter));
+            return filterInfoBuilder.getFilterInfo(Utils.filterOutEmpty(filter));
+        }
     }
 }
@@ -0,0 +1,320 @@
+package org.iish.treemap.labour;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.config.TreemapModule;
+import org.iish.treemap.model.tabular.TabularData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Generates synthetic labour relations data sets with realistic distributions,
+ * for reproducing performance problems without access to the real data sets.
+ * The generated data set has the same columns as the data sets read by {@link LabourRelationsXlsxReader},
+ * including all virtual columns, derived in the same way.
+ * <ul>
+ * <li>The number of records per country is skewed: a few countries have most of the records.</li>
+ * <li>The years are spread over all configured time periods.</li>
+ * <li>Some labour relations consist of multiple codes separated by a 0.</li>
+ * <li>Secondary and third labour relations are frequently not available (NA).</li>
+ * </ul>
+ * The same seed always generates the same data set.
+ * Derived values are shared between rows, so that data sets of tens of millions of rows fit in memory.
+ */
+public class SyntheticLabourDataset {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticLabourDataset.class);
+    private static final int MAX_TOTAL = 100000;
+
+    private Config config;
+    private LabourRelations labourRelations;
+    private TimePeriods timePeriods;
+
+    private long seed = 42;
+    private int rows = 100000;
+    private int countries = Integer.MAX_VALUE;
+    private double countrySkew = 1.0;
+    private double multiples = 0.1;
+    private double naDensity = 0.5;
+
+    /**
+     * Creates a generator for the given labour relation information.
+     *
+     * @param config          The configuration.
+     * @param labourRelations The labour relations information.
+     * @param timePeriods     The defined time periods.
+     */
+    public SyntheticLabourDataset(Config config, LabourRelations labourRelations, TimePeriods timePeriods) {
+        this.config = config;
+        this.labourRelations = labourRelations;
+        this.timePeriods = timePeriods;
+    }
+
+    /**
+     * Sets the seed of the random generator.
+     *
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of rows to generate.
+     *
+     * @param rows The number of rows.
+     */
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Sets the maximum number of distinct countries; by default all configured countries are used.
+     *
+     * @param countries The maximum number of distinct countries.
+     */
+    public void setCountries(int countries) {
+        this.countries = countries;
+    }
+
+    /**
+     * Sets the skew of the number of records per country: the country with rank r has a weight of 1 / r^skew.
+     * A skew of 0 distributes the records evenly over all countries.
+     *
+     * @param countrySkew The skew.
+     */
+    public void setCountrySkew(double countrySkew) {
+        this.countrySkew = countrySkew;
+    }
+
+    /**
+     * Sets the fraction of labour relations with multiple codes separated by a 0.
+     *
+     * @param multiples The fraction of labour relations with multiple codes.
+     */
+    public void setMultiples(double multiples) {
+        this.multiples = multiples;
+    }
+
+    /**
+     * Sets the fraction of secondary and third labour relations that are not available.
+     *
+     * @param naDensity The fraction of missing labour relations.
+     */
+    public void setNaDensity(double naDensity) {
+        this.naDensity = naDensity;
+    }
+
+    /**
+     * Generates the data set.
+     *
+     * @return The data set.
+     */
+    public TabularData generate() {
+        Random random = new Random(seed);
+
+        List<String> countryNames = new ArrayList<>(new TreeSet<>(config.countriesToContinent.keySet()));
+        Collections.shuffle(countryNames, random);
+        countryNames = countryNames.subList(0, Math.min(countries, countryNames.size()));
+        double[] countryWeights = getCumulativeWeights(countryNames.size());
+
+        List<String> codes = new ArrayList<>(new TreeSet<>(config.labourRelations.codes.keySet()));
+        List<TimePeriod> periods = timePeriods.getTimePeriods();
+
+        Map<String, Integer> headers = createHeaders();
+        int noColumns = headers.size();
+
+        Map<String, String[]> derived = new HashMap<>();
+        Map<Integer, String> years = new HashMap<>();
+        String[] totals = new String[MAX_TOTAL + 1];
+        String[][] rowDerived = new String[3][];
+
+        List<String[]> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String country = countryNames.get(getIndex(countryWeights, random.nextDouble()));
+            TimePeriod timePeriod = periods.get(random.nextInt(periods.size()));
+            int year = timePeriod.getMinYear() + random.nextInt(timePeriod.getMaxYear() - timePeriod.getMinYear());
+            int total = (int) Math.pow(MAX_TOTAL, random.nextDouble());
+
+            String labourRelation1 = getLabourRelation(random, codes);
+            String labourRelation2 = (random.nextDouble() < naDensity) ? null : getLabourRelation(random, codes);
+            String labourRelation3 = ((labourRelation2 == null) || (random.nextDouble() < naDensity))
+                    ? null : getLabourRelation(random, codes);
+
+            String[] row = new String[noColumns];
+            row[0] = years.computeIfAbsent(year, String::valueOf);
+            row[1] = (totals[total] != null) ? totals[total] : (totals[total] = String.valueOf(total));
+            row[2] = country;
+            row[3] = labourRelation1;
+            row[4] = labourRelation2;
+            row[5] = labourRelation3;
+
+            rowDerived[0] = derived.computeIfAbsent(labourRelation1, this::derive);
+            rowDerived[1] = derived.computeIfAbsent(labourRelation2, this::derive);
+            rowDerived[2] = derived.computeIfAbsent(labourRelation3, this::derive);
+
+            // Same order as the virtual columns: first three levels for each labour relation and the code,
+            // then the same with combined multiples
+            int col = 6;
+            for (int multiple = 0; multiple < 2; multiple++) {
+                for (String[] values : rowDerived)
+                    for (int level = 0; level < 3; level++)
+                        row[col++] = values[multiple * 4 + level];
+                row[col++] = rowDerived[0][multiple * 4 + 3];
+            }
+
+            row[col++] = rowDerived[0][8];
+            row[col++] = years.computeIfAbsent(timePeriod.getTimePeriod(), String::valueOf);
+            row[col] = config.countriesToContinent.get(country);
+
+            data.add(row);
+        }
+
+        return new TabularData(headers, data);
+    }
+
+    /**
+     * Creates the headers: the columns of the Excel file followed by all virtual columns.
+     *
+     * @return The headers with their index.
+     */
+    private Map<String, Integer> createHeaders() {
+        Map<String, Integer> headers = new HashMap<>();
+        headers.put(config.labour.xlsx.columns.year, 0);
+        headers.put(config.labour.xlsx.columns.total, 1);
+        headers.put(config.labour.xlsx.columns.country, 2);
+        headers.put(config.labour.xlsx.columns.labourRelationLevel1, 3);
+        headers.put(config.labour.xlsx.columns.labourRelationLevel2, 4);
+        headers.put(config.labour.xlsx.columns.labourRelationLevel3, 5);
+
+        int i = 6;
+        for (Field field : config.labour.xlsx.virtualColumns.getClass().getFields()) {
+            try {
+                headers.put(field.get(config.labour.xlsx.virtualColumns).toString(), i++);
+            }
+            catch (IllegalAccessException iae) {
+                LOGGER.warn("Illegal access to virtual columns config class!", iae);
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Derives the virtual column values for the given labour relation:
+     * the three levels and the code, first without and then with combined multiples, followed by the color.
+     *
+     * @param labourRelation The labour relation.
+     * @return The derived values.
+     */
+    private String[] derive(String labourRelation) {
+        return new String[]{
+                labourRelations.getLevel1(labourRelation, false),
+                labourRelations.getLevel2(labourRelation, false),
+                labourRelations.getLevel3(labourRelation, false),
+                labourRelations.getCode(labourRelation, false),
+                labourRelations.getLevel1(labourRelation, true),
+                labourRelations.getLevel2(labourRelation, true),
+                labourRelations.getLevel3(labourRelation, true),
+                labourRelations.getCode(labourRelation, true),
+                labourRelations.getColor(labourRelation)
+        };
+    }
+
+    /**
+     * Returns a random labour relation, which consists of multiple codes for the configured fraction.
+     *
+     * @param random The random generator.
+     * @param codes  The labour relation codes.
+     * @return The labour relation.
+     */
+    private String getLabourRelation(Random random, List<String> codes) {
+        String labourRelation = codes.get(random.nextInt(codes.size()));
+        if (random.nextDouble() < multiples)
+            labourRelation += "0" + codes.get(random.nextInt(codes.size()));
+        return labourRelation;
+    }
+
+    /**
+     * Computes the cumulative weights of the given number of ranks, normalized to 1.
+     *
+     * @param size The number of ranks.
+     * @return The cumulative weights.
+     */
+    private double[] getCumulativeWeights(int size) {
+        double[] weights = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, countrySkew);
+            weights[i] = sum;
+        }
+        for (int i = 0; i < size; i++)
+            weights[i] /= sum;
+        return weights;
+    }
+
+    /**
+     * Returns the rank for the given random value between 0 and 1.
+     *
+     * @param cumulativeWeights The cumulative weights.
+     * @param value             The random value.
+     * @return The rank.
+     */
+    private static int getIndex(double[] cumulativeWeights, double value) {
+        int index = Arrays.binarySearch(cumulativeWeights, value);
+        return Math.min((index >= 0) ? index : -index - 1, cumulativeWeights.length - 1);
+    }
+
+    /**
+     * Generates a data set and stores it as the standard data set,
+     * at the location given by the 'treemap.dataset' system property.
+     * Usage: SyntheticLabourDataset [rows] [countries] [countrySkew] [multiples] [naDensity] [seed]
+     *
+     * @param args The command line arguments.
+     * @throws IOException On failure to store the data set.
+     */
+    public static void main(String[] args) throws IOException {
+        String path = System.getProperty("treemap.dataset", null);
+        if (path == null) {
+            System.err.println("Usage: java -Dtreemap.config=config.yaml -Dtreemap.dataset=dataset.ser " +
+                    SyntheticLabourDataset.class.getName() +
+                    " [rows] [countries] [countrySkew] [multiples] [naDensity] [seed]");
+            System.exit(1);
+        }
+
+        Injector injector = Guice.createInjector(new TreemapModule());
+        SyntheticLabourDataset generator = new SyntheticLabourDataset(
+                injector.getInstance(Config.class),
+                injector.getInstance(LabourRelations.class),
+                injector.getInstance(TimePeriods.class)
+        );
+
+        if (args.length > 0)
+            generator.setRows(Integer.parseInt(args[0]));
+        if (args.length > 1)
+            generator.setCountries(Integer.parseInt(args[1]));
+        if (args.length > 2)
+            generator.setCountrySkew(Double.parseDouble(args[2]));
+        if (args.length > 3)
+            generator.setMultiples(Double.parseDouble(args[3]));
+        if (args.length > 4)
+            generator.setNaDensity(Double.parseDouble(args[4]));
+        if (args.length > 5)
+            generator.setSeed(Long.parseLong(args[5]));
+
+        TabularData data = generator.generate();
+        LOGGER.info("Generated a dataset with {} rows; writing it to {}.", data.getSize(), path);
+
+        try (ObjectOutputStream objectOutputStream =
+                     new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            objectOutputStream.writeObject(data);
+        }
+    }
+}
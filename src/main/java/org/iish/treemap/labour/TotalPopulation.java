@@ -1,15 +1,19 @@
 package org.iish.treemap.labour;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.iish.treemap.config.Config;
 import org.iish.treemap.model.tabular.MultiTabularData;
 import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.CacheStatistics;
+import org.iish.treemap.util.HeapEstimator;
 import org.iish.treemap.util.Utils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class holding total population information.
@@ -21,14 +25,17 @@ public class TotalPopulation {
     private String continentColumn;
     private Config.WorldPopulation worldPopulation;
     private Map<String, Integer> headers;
+    private Cache<String, TabularData> extensions;
+    private CacheStatistics cacheStatistics;
 
     /**
      * Builds the total population dataset based on the given configuration.
      *
-     * @param config The configuration with total population information.
+     * @param config          The configuration with total population information.
+     * @param cacheStatistics The registry of caches with statistics.
      */
     @Inject
-    public TotalPopulation(Config config) {
+    public TotalPopulation(Config config, CacheStatistics cacheStatistics) {
         this.yearColumn = config.labour.xlsx.virtualColumns.bmyear;
         this.totalColumn = config.labour.xlsx.columns.total;
         this.continentColumn = config.labour.xlsx.virtualColumns.continent;
@@ -42,60 +49,72 @@ public class TotalPopulation {
         headers.put(config.labour.xlsx.virtualColumns.labRel11, 4);
         headers.put(config.labour.xlsx.virtualColumns.labRelMultiple11, 5);
         headers.put(config.labour.xlsx.virtualColumns.code, 6);
+
+        this.cacheStatistics = cacheStatistics;
+        this.extensions = cacheStatistics.build(CacheStatistics.TOTAL_POPULATION, CacheBuilder.newBuilder()
+                .maximumSize(config.cache.maximumSize)
+                .expireAfterAccess(config.cache.maxHoursAccessTime, TimeUnit.HOURS), HeapEstimator::estimate);
     }
 
     /**
      * Enrich the dataset with missing numbers based on the total population.
+     * The extension only depends on the dataset, so it is computed once for each version of the dataset.
      *
+     * @param version  The version of the dataset.
      * @param original The original dataset.
      * @return The enriched dataset.
      */
-    public TabularData enrichDataset(TabularData original) {
-        ArrayList<String[]> data = new ArrayList<>();
+    public TabularData enrichDataset(String version, TabularData original) {
+        TabularData extension = extensions.getIfPresent(version);
+        if (extension == null) {
+            long start = System.nanoTime();
+            extension = createExtension(totalsPerYearAndContinent(original));
+            extensions.put(version, extension);
+            cacheStatistics.recordLoad(CacheStatistics.TOTAL_POPULATION, System.nanoTime() - start);
+        }
+
+        return new MultiTabularData(Arrays.asList(original, extension));
+    }
 
-        Map<String, Map<String, List<Integer>>> yearContinentRows = new HashMap<>();
-        original.getRows().stream()
-                .collect(Collectors.groupingBy(rowIdx -> original.getValue(yearColumn, rowIdx)))
-                .forEach((year, rows) -> {
-                    Map<String, List<Integer>> continentRows = rows.stream()
-                            .collect(Collectors.groupingBy(rowIdx -> original.getValue(continentColumn, rowIdx)));
-                    yearContinentRows.put(year, continentRows);
-                });
+    /**
+     * Creates the extension dataset with the missing numbers for each year and continent
+     * from the pre-aggregated totals of the dataset.
+     *
+     * @param totals The totals of the dataset by year and continent.
+     * @return The extension dataset.
+     */
+    private TabularData createExtension(Map<String, Map<String, BigDecimal>> totals) {
+        ArrayList<String[]> data = new ArrayList<>();
 
         worldPopulation.totals.forEach((year, continentTotals) -> {
+            Map<String, BigDecimal> continentTotalsDataset = totals.getOrDefault(year.toString(), Collections.emptyMap());
             continentTotals.forEach((continent, totalPopulation) -> {
-                BigDecimal totalDataset = BigDecimal.ZERO;
-                if (yearContinentRows.containsKey(year.toString())) {
-                    Map<String, List<Integer>> continentRows = yearContinentRows.get(year.toString());
-                    if (continentRows.containsKey(continent))
-                        totalDataset = totalPopulationDataset(original, continentRows.get(continent));
-                }
-                addToDataset(data, year, continent, totalDataset);
+                BigDecimal totalDataset = continentTotalsDataset.getOrDefault(continent, BigDecimal.ZERO);
+                addToDataset(data, year, continent, totalDataset.setScale(0, BigDecimal.ROUND_HALF_UP));
             });
         });
 
         data.trimToSize();
-        TabularData extension = new TabularData(headers, data);
-
-        return new MultiTabularData(Arrays.asList(original, extension));
+        return new TabularData(headers, data);
     }
 
     /**
-     * For the given slice from the dataset, compute the total size.
+     * Computes the total size of the dataset for each year and continent in a single pass over the dataset.
      *
      * @param dataset The dataset.
-     * @param rows    The rows in question.
-     * @return The total population size from the dataset.
+     * @return The total population size from the dataset by year and continent.
      */
-    private BigDecimal totalPopulationDataset(TabularData dataset, List<Integer> rows) {
-        BigDecimal count = rows.stream()
-                .map(rowIdx -> {
-                    String value = dataset.getValue(totalColumn, rowIdx);
-                    BigDecimal bigDecimalValue = Utils.getBigDecimal(value);
-                    return (bigDecimalValue != null) ? bigDecimalValue : BigDecimal.ZERO;
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        return count.setScale(0, BigDecimal.ROUND_HALF_UP);
+    private Map<String, Map<String, BigDecimal>> totalsPerYearAndContinent(TabularData dataset) {
+        Map<String, Map<String, BigDecimal>> totals = new HashMap<>();
+        for (int rowIdx = 0; rowIdx < dataset.getSize(); rowIdx++) {
+            String year = dataset.getValue(yearColumn, rowIdx);
+            String continent = dataset.getValue(continentColumn, rowIdx);
+            BigDecimal value = Utils.getBigDecimal(dataset.getValue(totalColumn, rowIdx));
+
+            if ((year != null) && (continent != null) && (value != null))
+                totals.computeIfAbsent(year, y -> new HashMap<>()).merge(continent, value, BigDecimal::add);
+        }
+        return totals;
     }
 
     /**
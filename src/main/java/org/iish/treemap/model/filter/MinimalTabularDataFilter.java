@@ -42,4 +42,14 @@ public class MinimalTabularDataFilter implements TabularDataFilter {
                 .collect(Collectors.toSet());
         return new FilteredTabularData(data, filteredRows);
     }
+
+    /**
+     * Returns a description of the filter, in the form of the request parameter.
+     *
+     * @return The description.
+     */
+    @Override
+    public String toString() {
+        return "min:" + column + "=" + minimum;
+    }
 }
@@ -43,4 +43,14 @@ public class ValuesTabularDataFilter implements TabularDataFilter {
                 .collect(Collectors.toSet());
         return new FilteredTabularData(data, filteredRows);
     }
+
+    /**
+     * Returns a description of the filter, in the form of the request parameter.
+     *
+     * @return The description.
+     */
+    @Override
+    public String toString() {
+        return "filter:" + column + "=" + values.stream().sorted().collect(Collectors.joining(","));
+    }
 }
@@ -0,0 +1,646 @@
+package org.iish.treemap.model.treemap;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Representation of a treemap as a flat structure of primitive arrays, rather than a graph of node objects.
+ * The nodes are stored in depth-first order, so the subtree of a node is the range of nodes directly following it.
+ * All strings are interned in a dictionary and referred to by their index, or -1 if absent.
+ * All sizes share a single scale and are stored as unscaled longs.
+ */
+public class FlatTreemap {
+    private final int noNodes;
+    private final int[] parents;
+    private final int[] ends;
+
+    private final List<String> strings;
+    private final int[] names;
+    private final int[] originalColumns;
+    private final int[] columns;
+    private final int[] suffixes;
+    private final int[] colors;
+    private final int[] codes;
+
+    private final BitSet leafs;
+    private final BitSet empty;
+
+    private final int scale;
+    private final long[] sizes;
+    private final long[] sizesA;
+    private final long[] sizesB;
+
+    /**
+     * Creates a flat treemap from the state of the given builder.
+     *
+     * @param builder The builder.
+     */
+    private FlatTreemap(Builder builder) {
+        this.noNodes = builder.noNodes;
+        this.parents = Arrays.copyOf(builder.parents, noNodes);
+        this.ends = new int[noNodes];
+
+        this.strings = Collections.unmodifiableList(new ArrayList<>(builder.stringList));
+        this.names = Arrays.copyOf(builder.names, noNodes);
+        this.originalColumns = Arrays.copyOf(builder.originalColumns, noNodes);
+        this.columns = Arrays.copyOf(builder.columns, noNodes);
+        this.suffixes = Arrays.copyOf(builder.suffixes, noNodes);
+        this.colors = Arrays.copyOf(builder.colors, noNodes);
+        this.codes = Arrays.copyOf(builder.codes, noNodes);
+
+        this.leafs = builder.leafs.get(0, noNodes);
+        this.empty = builder.empty.get(0, noNodes);
+
+        this.scale = builder.scale;
+        this.sizes = Arrays.copyOf(builder.sizes, noNodes);
+        this.sizesA = builder.hasDiff ? Arrays.copyOf(builder.sizesA, noNodes) : null;
+        this.sizesB = builder.hasDiff ? Arrays.copyOf(builder.sizesB, noNodes) : null;
+
+        // As the nodes are in depth-first order, the subtree of each node ends where the subtree of its last child ends
+        for (int node = noNodes - 1; node >= 0; node--) {
+            ends[node] = Math.max(ends[node], node + 1);
+            if (parents[node] >= 0)
+                ends[parents[node]] = Math.max(ends[parents[node]], ends[node]);
+        }
+    }
+
+    /**
+     * Returns the number of nodes; the root is node 0.
+     *
+     * @return The number of nodes.
+     */
+    public int getNoNodes() {
+        return noNodes;
+    }
+
+    /**
+     * Returns the parent of the given node.
+     *
+     * @param node The node.
+     * @return The parent, or -1 for the root.
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * Returns the first child of the given node.
+     *
+     * @param node The node.
+     * @return The first child, or -1 if the node has no children.
+     */
+    public int getFirstChild(int node) {
+        return ((node + 1) < ends[node]) ? node + 1 : -1;
+    }
+
+    /**
+     * Returns the next sibling of the given node.
+     *
+     * @param node The node.
+     * @return The next sibling, or -1 if the node is the last child of its parent.
+     */
+    public int getNextSibling(int node) {
+        int parent = parents[node];
+        return ((parent >= 0) && (ends[node] < ends[parent])) ? ends[node] : -1;
+    }
+
+    /**
+     * Returns the dictionary with all strings of this treemap.
+     *
+     * @return The strings.
+     */
+    public List<String> getStrings() {
+        return strings;
+    }
+
+    /**
+     * Returns the dictionary index of the name of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getNameId(int node) {
+        return names[node];
+    }
+
+    /**
+     * Returns the dictionary index of the original column of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getOriginalColumnId(int node) {
+        return originalColumns[node];
+    }
+
+    /**
+     * Returns the dictionary index of the column of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getColumnId(int node) {
+        return columns[node];
+    }
+
+    /**
+     * Returns the dictionary index of the suffix of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getSuffixId(int node) {
+        return suffixes[node];
+    }
+
+    /**
+     * Returns the dictionary index of the color of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getColorId(int node) {
+        return colors[node];
+    }
+
+    /**
+     * Returns the dictionary index of the code of the given node.
+     *
+     * @param node The node.
+     * @return The dictionary index, or -1 if absent.
+     */
+    public int getCodeId(int node) {
+        return codes[node];
+    }
+
+    /**
+     * Returns the name of the given node.
+     *
+     * @param node The node.
+     * @return The name.
+     */
+    public String getName(int node) {
+        return getString(names[node]);
+    }
+
+    /**
+     * Returns the original column of the given node.
+     *
+     * @param node The node.
+     * @return The original column.
+     */
+    public String getOriginalColumn(int node) {
+        return getString(originalColumns[node]);
+    }
+
+    /**
+     * Returns the column of the given node.
+     *
+     * @param node The node.
+     * @return The column.
+     */
+    public String getColumn(int node) {
+        return getString(columns[node]);
+    }
+
+    /**
+     * Returns the suffix of the name of the given node.
+     *
+     * @param node The node.
+     * @return The suffix, or null.
+     */
+    public String getSuffix(int node) {
+        return getString(suffixes[node]);
+    }
+
+    /**
+     * Returns the color of the given node.
+     *
+     * @param node The node.
+     * @return The color, or null.
+     */
+    public String getColor(int node) {
+        return getString(colors[node]);
+    }
+
+    /**
+     * Returns the code of the given node.
+     *
+     * @param node The node.
+     * @return The code, or null.
+     */
+    public String getCode(int node) {
+        return getString(codes[node]);
+    }
+
+    /**
+     * Returns whether the given node is a leaf.
+     *
+     * @param node The node.
+     * @return Whether the node is a leaf.
+     */
+    public boolean isLeaf(int node) {
+        return leafs.get(node);
+    }
+
+    /**
+     * Returns whether the given node represents an empty node.
+     *
+     * @param node The node.
+     * @return Whether the node is an empty node.
+     */
+    public boolean isEmpty(int node) {
+        return empty.get(node);
+    }
+
+    /**
+     * Returns the size of the given node; only leafs have a size.
+     *
+     * @param node The node.
+     * @return The size, or null if the node is not a leaf.
+     */
+    public BigDecimal getSize(int node) {
+        return leafs.get(node) ? toBigDecimal(sizes[node]) : null;
+    }
+
+    /**
+     * Returns whether the nodes of this treemap compare two sides.
+     *
+     * @return Whether the nodes compare two sides.
+     */
+    public boolean hasDiff() {
+        return sizesA != null;
+    }
+
+    /**
+     * Returns the size of side A of the given node, if this treemap compares two sides.
+     *
+     * @param node The node.
+     * @return The size of side A, or null.
+     */
+    public BigDecimal getSizeA(int node) {
+        return (sizesA != null) ? toBigDecimal(sizesA[node]) : null;
+    }
+
+    /**
+     * Returns the size of side B of the given node, if this treemap compares two sides.
+     *
+     * @param node The node.
+     * @return The size of side B, or null.
+     */
+    public BigDecimal getSizeB(int node) {
+        return (sizesB != null) ? toBigDecimal(sizesB[node]) : null;
+    }
+
+    /**
+     * Returns the difference between the size of side B and side A of the given node,
+     * if this treemap compares two sides.
+     *
+     * @param node The node.
+     * @return The difference, or null.
+     */
+    public BigDecimal getDelta(int node) {
+        return (sizesA != null) ? toBigDecimal(sizesB[node] - sizesA[node]) : null;
+    }
+
+    /**
+     * Converts this treemap into a graph of node objects.
+     *
+     * @return The treemap as a graph of node objects.
+     */
+    public Treemap toTreemap() {
+        return toTreemap(0);
+    }
+
+    /**
+     * Converts the subtree of the given node into a graph of node objects.
+     *
+     * @param node The node.
+     * @return The subtree as a graph of node objects.
+     */
+    private Treemap toTreemap(int node) {
+        Treemap treemap;
+        if (isLeaf(node)) {
+            treemap = new Leaf(getOriginalColumn(node), getColumn(node), getName(node), getSize(node));
+        }
+        else {
+            Composite composite = new Composite(getOriginalColumn(node), getColumn(node), getName(node));
+            for (int child = getFirstChild(node); child >= 0; child = getNextSibling(child))
+                composite.addChild(toTreemap(child));
+            treemap = composite;
+        }
+
+        treemap.setSuffix(getSuffix(node));
+        treemap.setColor(getColor(node));
+        treemap.setCode(getCode(node));
+        treemap.setEmpty(isEmpty(node));
+        if (hasDiff())
+            treemap.setDiff(getSizeA(node), getSizeB(node));
+
+        return treemap;
+    }
+
+    /**
+     * Returns the string with the given dictionary index.
+     *
+     * @param id The dictionary index.
+     * @return The string, or null if absent.
+     */
+    private String getString(int id) {
+        return (id >= 0) ? strings.get(id) : null;
+    }
+
+    /**
+     * Converts an unscaled size into a number.
+     * Trailing zeros introduced by the shared scale are removed again.
+     *
+     * @param unscaled The unscaled size.
+     * @return The size.
+     */
+    private BigDecimal toBigDecimal(long unscaled) {
+        BigDecimal size = BigDecimal.valueOf(unscaled, scale);
+        if (scale > 0) {
+            size = size.stripTrailingZeros();
+            if (size.scale() < 0)
+                size = size.setScale(0);
+        }
+        return size;
+    }
+
+    /**
+     * Builds a flat treemap by appending nodes in depth-first order.
+     * A node that was just appended, with its subtree, can still be replaced.
+     */
+    public static class Builder {
+        private int noNodes;
+        private int[] parents = new int[16];
+        private int[] noChildren = new int[16];
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> stringList = new ArrayList<>();
+        private int[] names = new int[16];
+        private int[] originalColumns = new int[16];
+        private int[] columns = new int[16];
+        private int[] suffixes = new int[16];
+        private int[] colors = new int[16];
+        private int[] codes = new int[16];
+
+        private final BitSet leafs = new BitSet();
+        private final BitSet empty = new BitSet();
+
+        private int scale;
+        private boolean hasDiff;
+        private long[] sizes = new long[16];
+        private long[] sizesA = new long[16];
+        private long[] sizesB = new long[16];
+
+        /**
+         * Appends a new composite node as the last child of the given parent.
+         * The node has to be appended after the whole subtree of its previous sibling.
+         *
+         * @param parent         The parent node, or -1 for the root.
+         * @param originalColumn The original column which represents the hierarchy of the node.
+         * @param column         The column which represents the hierarchy of the node.
+         * @param name           The name of the node.
+         * @return The new node.
+         */
+        public int addNode(int parent, String originalColumn, String column, String name) {
+            if (noNodes == parents.length)
+                grow();
+
+            int node = noNodes++;
+            parents[node] = parent;
+            noChildren[node] = 0;
+            if (parent >= 0)
+                noChildren[parent]++;
+
+            names[node] = intern(name);
+            originalColumns[node] = intern(originalColumn);
+            columns[node] = intern(column);
+            suffixes[node] = -1;
+            colors[node] = -1;
+            codes[node] = -1;
+
+            leafs.clear(node);
+            empty.clear(node);
+            sizes[node] = sizesA[node] = sizesB[node] = 0;
+
+            return node;
+        }
+
+        /**
+         * Appends a new leaf as the last child of the given parent.
+         *
+         * @param parent         The parent node.
+         * @param originalColumn The original column which represents the hierarchy of the leaf.
+         * @param column         The column which represents the hierarchy of the leaf.
+         * @param name           The name of the leaf.
+         * @param size           The size of the leaf.
+         * @return The new leaf.
+         */
+        public int addLeaf(int parent, String originalColumn, String column, String name, BigDecimal size) {
+            int node = addNode(parent, originalColumn, column, name);
+            leafs.set(node);
+            sizes[node] = toUnscaled(size);
+            return node;
+        }
+
+        /**
+         * Returns the number of children of the given node.
+         *
+         * @param node The node.
+         * @return The number of children.
+         */
+        public int getNoChildren(int node) {
+            return noChildren[node];
+        }
+
+        /**
+         * Returns the name of the given node.
+         *
+         * @param node The node.
+         * @return The name.
+         */
+        public String getName(int node) {
+            return getString(names[node]);
+        }
+
+        /**
+         * Returns whether the given node represents an empty node.
+         *
+         * @param node The node.
+         * @return Whether the node is an empty node.
+         */
+        public boolean isEmpty(int node) {
+            return empty.get(node);
+        }
+
+        /**
+         * Sets the suffix of the name of the given node.
+         *
+         * @param node   The node.
+         * @param suffix The suffix.
+         */
+        public void setSuffix(int node, String suffix) {
+            suffixes[node] = intern(suffix);
+        }
+
+        /**
+         * Sets the color of the given node.
+         *
+         * @param node  The node.
+         * @param color The color.
+         */
+        public void setColor(int node, String color) {
+            colors[node] = intern(color);
+        }
+
+        /**
+         * Sets the code of the given node.
+         *
+         * @param node The node.
+         * @param code The code.
+         */
+        public void setCode(int node, String code) {
+            codes[node] = intern(code);
+        }
+
+        /**
+         * Sets whether the given node represents an empty node.
+         *
+         * @param node    The node.
+         * @param isEmpty True if it is an empty node.
+         */
+        public void setEmpty(int node, boolean isEmpty) {
+            empty.set(node, isEmpty);
+        }
+
+        /**
+         * Sets the sizes of both sides the given node compares.
+         *
+         * @param node  The node.
+         * @param sizeA The size of side A.
+         * @param sizeB The size of side B.
+         */
+        public void setDiff(int node, BigDecimal sizeA, BigDecimal sizeB) {
+            hasDiff = true;
+            sizesA[node] = toUnscaled(sizeA);
+            sizesB[node] = toUnscaled(sizeB);
+        }
+
+        /**
+         * Removes the given node with its whole subtree; it has to be the last appended subtree.
+         *
+         * @param node The node.
+         */
+        public void remove(int node) {
+            if (parents[node] >= 0)
+                noChildren[parents[node]]--;
+            noNodes = node;
+        }
+
+        /**
+         * Replaces the given node, which has exactly one child, by that child; it has to be the last appended subtree.
+         *
+         * @param node The node.
+         */
+        public void replaceByChild(int node) {
+            int parent = parents[node];
+            int length = noNodes - node - 1;
+            System.arraycopy(parents, node + 1, parents, node, length);
+            System.arraycopy(noChildren, node + 1, noChildren, node, length);
+            System.arraycopy(names, node + 1, names, node, length);
+            System.arraycopy(originalColumns, node + 1, originalColumns, node, length);
+            System.arraycopy(columns, node + 1, columns, node, length);
+            System.arraycopy(suffixes, node + 1, suffixes, node, length);
+            System.arraycopy(colors, node + 1, colors, node, length);
+            System.arraycopy(codes, node + 1, codes, node, length);
+            System.arraycopy(sizes, node + 1, sizes, node, length);
+            System.arraycopy(sizesA, node + 1, sizesA, node, length);
+            System.arraycopy(sizesB, node + 1, sizesB, node, length);
+
+            for (int i = node; i < (noNodes - 1); i++) {
+                leafs.set(i, leafs.get(i + 1));
+                empty.set(i, empty.get(i + 1));
+                if (parents[i] > node)
+                    parents[i]--;
+            }
+
+            parents[node] = parent;
+            noNodes--;
+        }
+
+        /**
+         * Creates the flat treemap.
+         *
+         * @return The flat treemap.
+         */
+        public FlatTreemap build() {
+            return new FlatTreemap(this);
+        }
+
+        /**
+         * Returns the dictionary index of the given string, adding it to the dictionary if necessary.
+         *
+         * @param string The string.
+         * @return The dictionary index, or -1 if the string is null.
+         */
+        private int intern(String string) {
+            if (string == null)
+                return -1;
+
+            return strings.computeIfAbsent(string, s -> {
+                stringList.add(s);
+                return stringList.size() - 1;
+            });
+        }
+
+        /**
+         * Returns the string with the given dictionary index.
+         *
+         * @param id The dictionary index.
+         * @return The string, or null if absent.
+         */
+        private String getString(int id) {
+            return (id >= 0) ? stringList.get(id) : null;
+        }
+
+        /**
+         * Converts the given size into an unscaled long using the shared scale.
+         * If the size has a larger scale, the shared scale is increased and all sizes so far are rescaled.
+         *
+         * @param size The size.
+         * @return The unscaled size.
+         */
+        private long toUnscaled(BigDecimal size) {
+            if (size.scale() > scale) {
+                long factor = BigDecimal.ONE.scaleByPowerOfTen(size.scale() - scale).longValueExact();
+                for (int i = 0; i < noNodes; i++) {
+                    sizes[i] = Math.multiplyExact(sizes[i], factor);
+                    sizesA[i] = Math.multiplyExact(sizesA[i], factor);
+                    sizesB[i] = Math.multiplyExact(sizesB[i], factor);
+                }
+                scale = size.scale();
+            }
+            return size.setScale(scale).unscaledValue().longValueExact();
+        }
+
+        /**
+         * Doubles the capacity of all arrays.
+         */
+        private void grow() {
+            int capacity = parents.length * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            noChildren = Arrays.copyOf(noChildren, capacity);
+            names = Arrays.copyOf(names, capacity);
+            originalColumns = Arrays.copyOf(originalColumns, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            suffixes = Arrays.copyOf(suffixes, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            sizesA = Arrays.copyOf(sizesA, capacity);
+            sizesB = Arrays.copyOf(sizesB, capacity);
+        }
+    }
+}
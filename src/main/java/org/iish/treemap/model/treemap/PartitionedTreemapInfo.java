@@ -0,0 +1,54 @@
+package org.iish.treemap.model.treemap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to hold a treemap for each partition of a dataset and all related information.
+ */
+public class PartitionedTreemapInfo {
+    private Map<String, FlatTreemap> treemaps;
+    private List<FilterInfo> filterInfo;
+    private List<LegendValue> legend;
+
+    /**
+     * Creates a new partitioned treemaps and related information holder.
+     *
+     * @param treemaps   The treemaps by partition value.
+     * @param filterInfo The filter information.
+     * @param legend     The legend.
+     */
+    public PartitionedTreemapInfo(Map<String, FlatTreemap> treemaps, List<FilterInfo> filterInfo,
+                                  List<LegendValue> legend) {
+        this.treemaps = treemaps;
+        this.filterInfo = filterInfo;
+        this.legend = legend;
+    }
+
+    /**
+     * Returns the treemaps by partition value.
+     *
+     * @return The treemaps.
+     */
+    public Map<String, FlatTreemap> getTreemaps() {
+        return treemaps;
+    }
+
+    /**
+     * Returns the filter information.
+     *
+     * @return The filter information.
+     */
+    public List<FilterInfo> getFilterInfo() {
+        return filterInfo;
+    }
+
+    /**
+     * Returns the legend.
+     *
+     * @return The legend.
+     */
+    public List<LegendValue> getLegend() {
+        return legend;
+    }
+}
@@ -1,5 +1,7 @@
 package org.iish.treemap.model.treemap;
 
+import java.math.BigDecimal;
+
 /**
  * Representation of a treemap.
  */
@@ -13,6 +15,10 @@ public abstract class Treemap {
     private String code;
     private boolean isEmpty;
 
+    private BigDecimal sizeA;
+    private BigDecimal sizeB;
+    private BigDecimal delta;
+
     /**
      * Creates a treemap.
      *
@@ -124,4 +130,43 @@ public abstract class Treemap {
     public void setEmpty(boolean empty) {
         isEmpty = empty;
     }
+
+    /**
+     * Returns the size of side A, if this node compares two sides.
+     *
+     * @return The size of side A, or null.
+     */
+    public BigDecimal getSizeA() {
+        return sizeA;
+    }
+
+    /**
+     * Returns the size of side B, if this node compares two sides.
+     *
+     * @return The size of side B, or null.
+     */
+    public BigDecimal getSizeB() {
+        return sizeB;
+    }
+
+    /**
+     * Returns the difference between the size of side B and side A, if this node compares two sides.
+     *
+     * @return The difference, or null.
+     */
+    public BigDecimal getDelta() {
+        return delta;
+    }
+
+    /**
+     * Sets the sizes of both sides this node compares.
+     *
+     * @param sizeA The size of side A.
+     * @param sizeB The size of side B.
+     */
+    public void setDiff(BigDecimal sizeA, BigDecimal sizeB) {
+        this.sizeA = sizeA;
+        this.sizeB = sizeB;
+        this.delta = sizeB.subtract(sizeA);
+    }
 }
@@ -5,7 +5,7 @@ import org.iish.treemap.util.Utils;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.IntUnaryOperator;
 
 /**
  * A builder that creates treemaps.
@@ -101,146 +101,274 @@ public class TreemapBuilder {
      * @return The treemap.
      */
     public Treemap getTreeMap(String name) {
-        Composite treeMap = new Composite(name, name, name);
-        addBranch(new LinkedList<>(hierarchyColumns), table.getRows(), treeMap);
-        return treeMap;
+        return getFlatTreeMap(name).toTreemap();
+    }
+
+    /**
+     * Returns the created treemap with the given name as a flat structure.
+     *
+     * @param name The name of the treemap.
+     * @return The flat treemap.
+     */
+    public FlatTreemap getFlatTreeMap(String name) {
+        Node root = new Node(1);
+        for (int rowIndex = 0; rowIndex < table.getSize(); rowIndex++)
+            addRow(root, 0, rowIndex);
+        return createTreeMap(name, root);
+    }
+
+    /**
+     * Returns a single treemap with the given name that compares two sides of the table.
+     * Both sides are aggregated in a single pass over the table. Every node holds the size of both sides
+     * and the difference between them. Subtrees without any differences are collapsed into a leaf.
+     * The size of a leaf is the largest size of both sides, so that nodes found on only one side remain visible.
+     *
+     * @param name The name of the treemap.
+     * @param side Returns for a row index the side of the row: 0 for side A, 1 for side B,
+     *             or a negative number to skip the row.
+     * @return The flat treemap.
+     */
+    public FlatTreemap getFlatDiffTreeMap(String name, IntUnaryOperator side) {
+        Node root = new Node(2);
+        for (int rowIndex = 0; rowIndex < table.getSize(); rowIndex++) {
+            int rowSide = side.applyAsInt(rowIndex);
+            if (rowSide >= 0)
+                addRow(root, rowSide, rowIndex);
+        }
+        return createTreeMap(name, root);
+    }
+
+    /**
+     * Returns a treemap with the given name for each distinct value of the given partition column.
+     * All treemaps are created in a single pass over the table; rows without a partition value are skipped.
+     *
+     * @param name            The name of the treemaps.
+     * @param partitionColumn The column to partition the rows on.
+     * @return The flat treemaps by partition value.
+     */
+    public Map<String, FlatTreemap> getFlatTreeMaps(String name, String partitionColumn) {
+        Map<String, Node> roots = new TreeMap<>();
+        for (int rowIndex = 0; rowIndex < table.getSize(); rowIndex++) {
+            String partition = table.getValue(partitionColumn, rowIndex);
+            if (partition != null)
+                addRow(roots.computeIfAbsent(partition, p -> new Node(1)), 0, rowIndex);
+        }
+
+        Map<String, FlatTreemap> treeMaps = new LinkedHashMap<>();
+        roots.forEach((partition, root) -> treeMaps.put(partition, createTreeMap(name, root)));
+        return treeMaps;
+    }
+
+    /**
+     * Aggregates a single row into all nodes on its path through the hierarchies.
+     *
+     * @param root     The root node.
+     * @param side     The side to which the row belongs.
+     * @param rowIndex The index of the row.
+     */
+    private void addRow(Node root, int side, int rowIndex) {
+        BigDecimal size = Utils.getBigDecimal(table.getValue(sizeColumn, rowIndex));
+        String color = (colorColumn != null) ? table.getValue(colorColumn, rowIndex) : null;
+        String code = (codeColumn != null)
+                ? table.getValue(multiples.getOrDefault(codeColumn, codeColumn), rowIndex) : null;
+
+        String[] colors = (color != null) ? color.split(";") : null;
+        String[] codes = (code != null) ? code.split(",") : null;
+
+        Node node = root;
+        node.add(side, size, colors, codes);
+        for (String originalHierarchy : getHierarchyColumns()) {
+            String hierarchy = multiples.getOrDefault(originalHierarchy, originalHierarchy);
+            String value = table.getValue(hierarchy, rowIndex);
+
+            node = node.children.computeIfAbsent((value != null) ? value : "", key -> new Node(root.sizes.length));
+            node.add(side, size, colors, codes);
+        }
+    }
+
+    /**
+     * Returns the columns that represent the hierarchy.
+     * Without any hierarchy columns, all rows end up in a single (empty) leaf.
+     *
+     * @return The hierarchy columns.
+     */
+    private List<String> getHierarchyColumns() {
+        return !hierarchyColumns.isEmpty() ? hierarchyColumns : Collections.singletonList(null);
+    }
+
+    /**
+     * Creates the treemap from the aggregated nodes.
+     *
+     * @param name The name of the treemap.
+     * @param root The root node.
+     * @return The flat treemap.
+     */
+    private FlatTreemap createTreeMap(String name, Node root) {
+        FlatTreemap.Builder treeMap = new FlatTreemap.Builder();
+        int rootNode = treeMap.addNode(-1, name, name, name);
+        addDiff(treeMap, rootNode, root);
+        addBranch(treeMap, 0, root, rootNode);
+        return treeMap.build();
     }
 
     /**
      * Adds a branch to the treemap.
+     * Every branch is appended before its children; once all children are added,
+     * a branch without children or with a single empty child is replaced by a leaf
+     * and a branch with a single child of the same name is replaced by that child.
      *
-     * @param hierarchies The list of hierarchies to visit still.
-     * @param rows        The rows of the table.
-     * @param curBranch   The current branch in the treemap.
+     * @param treeMap   The treemap being built.
+     * @param level     The level of the hierarchy to visit.
+     * @param node      The aggregated node of the current branch.
+     * @param curBranch The current branch in the treemap.
      */
-    private void addBranch(Queue<String> hierarchies, List<Integer> rows, Composite curBranch) {
-        String originalHierarchy = hierarchies.poll();
+    private void addBranch(FlatTreemap.Builder treeMap, int level, Node node, int curBranch) {
+        String originalHierarchy = getHierarchyColumns().get(level);
         String hierarchy = multiples.getOrDefault(originalHierarchy, originalHierarchy);
+        boolean isLastLevel = (level == (getHierarchyColumns().size() - 1));
+
+        node.children.forEach((key, child) -> {
+            if (isLastLevel || isUnchanged(child))
+                addLeaf(treeMap, originalHierarchy, hierarchy, key, child, curBranch);
+            else {
+                String name = key;
+                if (key.isEmpty())
+                    name = getEmptyValue(originalHierarchy);
+
+                int nextBranch = treeMap.addNode(curBranch, originalHierarchy, hierarchy, name);
+                addSuffix(treeMap, nextBranch, originalHierarchy);
+                addDiff(treeMap, nextBranch, child);
+                addColor(treeMap, nextBranch, child);
+                addCode(treeMap, nextBranch, child);
+                addEmpty(treeMap, nextBranch, key.isEmpty());
 
-        rows.stream()
-                .collect(Collectors.groupingBy(rowIndex -> {
-                    String value = table.getValue(hierarchy, rowIndex);
-                    return (value != null) ? value : "";
-                }))
-                .forEach((key, rowIndexes) -> {
-                    if (hierarchies.isEmpty())
-                        addLeaf(originalHierarchy, hierarchy, key, rowIndexes, curBranch);
-                    else {
-                        String name = key;
-                        if (key.isEmpty())
-                            name = getEmptyValue(originalHierarchy);
-
-                        Composite nextBranch = new Composite(originalHierarchy, hierarchy, name);
-                        addSuffix(nextBranch, originalHierarchy);
-                        addColor(nextBranch, rowIndexes);
-                        addCode(nextBranch, rowIndexes);
-                        addEmpty(nextBranch, key.isEmpty());
-
-                        addBranch(new LinkedList<>(hierarchies), rowIndexes, nextBranch);
-
-                        List<Treemap> children = nextBranch.getChildren();
-                        boolean isSingleChild = (children.size() == 1);
-                        Treemap singleChild = isSingleChild ? children.get(0) : null;
-
-                        boolean singleSameChild = (isSingleChild && singleChild.getName().equals(name));
-                        boolean singleEmptyChild = (isSingleChild && singleChild.isEmpty());
-
-                        if (children.isEmpty() || singleEmptyChild)
-                            addLeaf(originalHierarchy, hierarchy, key, rowIndexes, curBranch);
-                        else if (singleSameChild)
-                            curBranch.addChild(singleChild);
-                        else
-                            curBranch.addChild(nextBranch);
-                    }
-                });
+                addBranch(treeMap, level + 1, child, nextBranch);
+
+                int noChildren = treeMap.getNoChildren(nextBranch);
+                boolean isSingleChild = (noChildren == 1);
+                int singleChild = nextBranch + 1;
+
+                boolean singleSameChild = (isSingleChild && treeMap.getName(singleChild).equals(name));
+                boolean singleEmptyChild = (isSingleChild && treeMap.isEmpty(singleChild));
+
+                if ((noChildren == 0) || singleEmptyChild) {
+                    treeMap.remove(nextBranch);
+                    addLeaf(treeMap, originalHierarchy, hierarchy, key, child, curBranch);
+                }
+                else if (singleSameChild)
+                    treeMap.replaceByChild(nextBranch);
+            }
+        });
     }
 
     /**
      * Adds a leaf to the treemap.
      *
+     * @param treeMap      The treemap being built.
      * @param orgHierarchy The name of the current original hierarchy.
      * @param hierarchy    The name of the current hierarchy.
      * @param name         The name of the leaf.
-     * @param rows         The rows of the table.
+     * @param node         The aggregated node of the leaf.
      * @param current      The current branch in the treemap.
      */
-    private void addLeaf(String orgHierarchy, String hierarchy, String name, List<Integer> rows, Composite current) {
-        BigDecimal count = rows.stream()
-                .map(rowIndex -> {
-                    String value = table.getValue(sizeColumn, rowIndex);
-                    BigDecimal bigDecimalValue = Utils.getBigDecimal(value);
-                    return (bigDecimalValue != null) ? bigDecimalValue : BigDecimal.ZERO;
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-        if (roundSize)
-            count = count.setScale(0, BigDecimal.ROUND_HALF_UP);
+    private void addLeaf(FlatTreemap.Builder treeMap, String orgHierarchy, String hierarchy, String name,
+                         Node node, int current) {
+        BigDecimal count = Arrays.stream(node.sizes).map(this::round).max(BigDecimal::compareTo).get();
 
         String newName = name;
         if (name.isEmpty())
             newName = getEmptyValue(orgHierarchy);
 
-        Leaf leaf = new Leaf(orgHierarchy, hierarchy, newName, count);
-        addSuffix(leaf, orgHierarchy);
-        addColor(leaf, rows);
-        addCode(leaf, rows);
-        addEmpty(leaf, name.isEmpty());
-
-        current.addChild(leaf);
+        int leaf = treeMap.addLeaf(current, orgHierarchy, hierarchy, newName, count);
+        addSuffix(treeMap, leaf, orgHierarchy);
+        addDiff(treeMap, leaf, node);
+        addColor(treeMap, leaf, node);
+        addCode(treeMap, leaf, node);
+        addEmpty(treeMap, leaf, name.isEmpty());
     }
 
     /**
      * If there is a suffix defined for this hierarchy, add this information to the treemap.
      *
-     * @param node         The treemap.
+     * @param treeMap      The treemap being built.
+     * @param node         The node in the treemap.
      * @param orgHierarchy The name of the current original hierarchy.
      */
-    private void addSuffix(Treemap node, String orgHierarchy) {
+    private void addSuffix(FlatTreemap.Builder treeMap, int node, String orgHierarchy) {
         if (suffixMap.containsKey(orgHierarchy))
-            node.setSuffix(suffixMap.get(orgHierarchy));
+            treeMap.setSuffix(node, suffixMap.get(orgHierarchy));
     }
 
     /**
-     * If there is a column defined for colors, add this information to the treemap.
+     * If the node compares two sides, add the size of both sides to the treemap.
      *
-     * @param node The treemap.
-     * @param rows The table rows.
+     * @param treeMap    The treemap being built.
+     * @param node       The node in the treemap.
+     * @param aggregated The aggregated node.
      */
-    private void addColor(Treemap node, List<Integer> rows) {
-        if (colorColumn != null) {
-            String colors = rows.stream()
-                    .flatMap(rowIndex -> Arrays.stream(table.getValue(colorColumn, rowIndex).split(";")))
-                    .distinct()
-                    .collect(Collectors.joining(";"));
-            node.setColor(colors);
+    private void addDiff(FlatTreemap.Builder treeMap, int node, Node aggregated) {
+        if (aggregated.sizes.length == 2)
+            treeMap.setDiff(node, round(aggregated.sizes[0]), round(aggregated.sizes[1]));
+    }
+
+    /**
+     * Whether the aggregated node compares two sides and both sides are equal for the whole subtree.
+     *
+     * @param node The aggregated node.
+     * @return True if the subtree has no differences.
+     */
+    private boolean isUnchanged(Node node) {
+        if (node.unchanged == null) {
+            node.unchanged = (node.sizes.length == 2)
+                    && (round(node.sizes[0]).compareTo(round(node.sizes[1])) == 0)
+                    && node.children.values().stream().allMatch(this::isUnchanged);
         }
+        return node.unchanged;
+    }
+
+    /**
+     * Rounds the given size, if sizes should be rounded.
+     *
+     * @param size The size.
+     * @return The (rounded) size.
+     */
+    private BigDecimal round(BigDecimal size) {
+        return roundSize ? size.setScale(0, BigDecimal.ROUND_HALF_UP) : size;
+    }
+
+    /**
+     * If there is a column defined for colors, add this information to the treemap.
+     *
+     * @param treeMap    The treemap being built.
+     * @param node       The node in the treemap.
+     * @param aggregated The aggregated node.
+     */
+    private void addColor(FlatTreemap.Builder treeMap, int node, Node aggregated) {
+        if (colorColumn != null)
+            treeMap.setColor(node, String.join(";", aggregated.colors));
     }
 
     /**
      * If there is a code defined for this hierarchy, add this information to the treemap.
      *
-     * @param node The treemap.
-     * @param rows The table rows.
-     */
-    private void addCode(Treemap node, List<Integer> rows) {
-        if (codeColumn != null) {
-            String codes = rows.stream()
-                    .flatMap(rowIndex -> Arrays.stream(
-                            table.getValue(multiples.getOrDefault(codeColumn, codeColumn), rowIndex).split(",")))
-                    .distinct()
-                    .collect(Collectors.joining(" or "));
-            node.setCode(codes);
-        }
+     * @param treeMap    The treemap being built.
+     * @param node       The node in the treemap.
+     * @param aggregated The aggregated node.
+     */
+    private void addCode(FlatTreemap.Builder treeMap, int node, Node aggregated) {
+        if (codeColumn != null)
+            treeMap.setCode(node, String.join(" or ", aggregated.codes));
     }
 
     /**
      * Make sure the treemap also contains information whether this is an empty node.
      *
-     * @param node    The treemap.
+     * @param treeMap The treemap being built.
+     * @param node    The node in the treemap.
      * @param isEmpty Whether this is an empty value node.
      */
-    private void addEmpty(Treemap node, boolean isEmpty) {
-        node.setEmpty(isEmpty);
+    private void addEmpty(FlatTreemap.Builder treeMap, int node, boolean isEmpty) {
+        treeMap.setEmpty(node, isEmpty);
     }
 
     /**
@@ -252,4 +380,38 @@ public class TreemapBuilder {
     private String getEmptyValue(String hierarchy) {
         return emptyMap.getOrDefault(hierarchy, "-");
     }
+
+    /**
+     * The aggregated size (for each side), colors and codes of all rows
+     * that share the same path through the hierarchies.
+     */
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final Set<String> colors = new LinkedHashSet<>();
+        private final Set<String> codes = new LinkedHashSet<>();
+        private final BigDecimal[] sizes;
+        private Boolean unchanged;
+
+        private Node(int noSides) {
+            this.sizes = new BigDecimal[noSides];
+            Arrays.fill(this.sizes, BigDecimal.ZERO);
+        }
+
+        /**
+         * Adds the values of a single row to this node.
+         *
+         * @param side   The side to which the row belongs.
+         * @param size   The size of the row, or null if it has no size.
+         * @param colors The colors of the row, or null.
+         * @param codes  The codes of the row, or null.
+         */
+        private void add(int side, BigDecimal size, String[] colors, String[] codes) {
+            if (size != null)
+                this.sizes[side] = this.sizes[side].add(size);
+            if (colors != null)
+                Collections.addAll(this.colors, colors);
+            if (codes != null)
+                Collections.addAll(this.codes, codes);
+        }
+    }
 }
@@ -6,7 +6,7 @@ import java.util.List;
  * Class to hold the treemap and all related information.
  */
 public class TreemapInfo {
-    private Treemap treemap;
+    private FlatTreemap treemap;
     private List<FilterInfo> filterInfo;
     private List<LegendValue> legend;
 
@@ -17,7 +17,7 @@ public class TreemapInfo {
      * @param filterInfo The filter information.
      * @param legend     The legend.
      */
-    public TreemapInfo(Treemap treemap, List<FilterInfo> filterInfo, List<LegendValue> legend) {
+    public TreemapInfo(FlatTreemap treemap, List<FilterInfo> filterInfo, List<LegendValue> legend) {
         this.treemap = treemap;
         this.filterInfo = filterInfo;
         this.legend = legend;
@@ -28,7 +28,7 @@ public class TreemapInfo {
      *
      * @return The treemap.
      */
-    public Treemap getTreemap() {
+    public FlatTreemap getTreemap() {
         return treemap;
     }
 
@@ -37,7 +37,7 @@ public class TreemapInfo {
      *
      * @param treemap The treemap.
      */
-    public void setTreemap(Treemap treemap) {
+    public void setTreemap(FlatTreemap treemap) {
         this.treemap = treemap;
     }
 
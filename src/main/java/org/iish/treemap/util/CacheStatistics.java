@@ -0,0 +1,282 @@
+package org.iish.treemap.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.RemovalCause;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Builds the caches of the application with statistics enabled and keeps track of them,
+ * so that their hit ratio, load times, evictions and current entries can be inspected at runtime.
+ * The caches are filled with the getIfPresent/put pattern, so Guava does not see the loads:
+ * the time spent to compute a missing value is recorded separately with {@link #recordLoad(String, long)}.
+ * Every lookup is also marked as a hit or a miss in the timings of the request handled by the current thread.
+ */
+@Singleton
+public class CacheStatistics {
+    public static final String DATASETS = "datasets";
+    public static final String TOTAL_POPULATION = "totalPopulation";
+    public static final String RESPONSES = "responses";
+    public static final String FILE_LISTINGS = "fileListings";
+
+    private final Map<String, MonitoredCache<?, ?>> caches = new ConcurrentHashMap<>();
+    private final Metrics metrics;
+
+    /**
+     * Creates the registry of caches.
+     *
+     * @param metrics The metrics holding the timings of the requests.
+     */
+    @Inject
+    public CacheStatistics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Builds a cache with statistics enabled and registers it under the given name.
+     *
+     * @param name    The name of the cache.
+     * @param builder The cache builder.
+     * @param weigher Estimates the weight of a value in bytes.
+     * @param <K>     The type of the keys.
+     * @param <V>     The type of the values.
+     * @return The cache.
+     */
+    public <K, V> Cache<K, V> build(String name, CacheBuilder<? super K, ? super V> builder,
+                                    ToLongFunction<V> weigher) {
+        ConcurrentMap<K, Long> created = new ConcurrentHashMap<>();
+        Cache<K, V> cache = builder
+                .recordStats()
+                .<K, V>removalListener(notification -> {
+                    if (notification.getCause() != RemovalCause.REPLACED)
+                        created.remove(notification.getKey());
+                })
+                .build();
+
+        MonitoredCache<K, V> monitoredCache = new MonitoredCache<>(name, cache, created, weigher);
+        caches.put(name, monitoredCache);
+        return monitoredCache;
+    }
+
+    /**
+     * Records the time spent to compute a value missing from the given cache.
+     *
+     * @param name  The name of the cache.
+     * @param nanos The time spent in nanoseconds.
+     */
+    public void recordLoad(String name, long nanos) {
+        MonitoredCache<?, ?> cache = caches.get(name);
+        if (cache != null) {
+            cache.loadCount.increment();
+            cache.loadNanos.add(nanos);
+        }
+    }
+
+    /**
+     * Returns the current statistics and entries of all caches.
+     *
+     * @return The statistics, ordered by the name of the cache.
+     */
+    public List<Snapshot> getSnapshots() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        new TreeMap<>(caches).forEach((name, cache) -> snapshots.add(cache.snapshot(name)));
+        return snapshots;
+    }
+
+    /**
+     * A cache recording when each entry was put, and marking every lookup in the timings of the request.
+     *
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     */
+    private class MonitoredCache<K, V> extends ForwardingCache.SimpleForwardingCache<K, V> {
+        private final String marker;
+        private final ConcurrentMap<K, Long> created;
+        private final ToLongFunction<V> weigher;
+        private final LongAdder loadCount = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+
+        /**
+         * Creates a cache recording when each entry was put.
+         *
+         * @param name     The name of the cache.
+         * @param delegate The cache.
+         * @param created  The time each entry was put, in milliseconds since the epoch.
+         * @param weigher  Estimates the weight of a value in bytes.
+         */
+        private MonitoredCache(String name, Cache<K, V> delegate, ConcurrentMap<K, Long> created,
+                               ToLongFunction<V> weigher) {
+            super(delegate);
+            this.marker = "cache-" + name;
+            this.created = created;
+            this.weigher = weigher;
+        }
+
+        /**
+         * Returns the value of the given key, and marks the lookup as a hit or a miss.
+         *
+         * @param key The key.
+         * @return The value, or null if not cached.
+         */
+        @Override
+        public V getIfPresent(Object key) {
+            V value = super.getIfPresent(key);
+
+            RequestTimings timings = metrics.getRequestTimings();
+            if (timings != null)
+                timings.addMarker(marker, (value != null) ? "hit" : "miss");
+
+            return value;
+        }
+
+        /**
+         * Puts the given entry and records when it was put.
+         *
+         * @param key   The key.
+         * @param value The value.
+         */
+        @Override
+        public void put(K key, V value) {
+            created.put(key, System.currentTimeMillis());
+            super.put(key, value);
+        }
+
+        /**
+         * Creates a snapshot of the statistics and the current entries.
+         *
+         * @param name The name of the cache.
+         * @return The snapshot.
+         */
+        private Snapshot snapshot(String name) {
+            long now = System.currentTimeMillis();
+            List<EntrySnapshot> entries = new ArrayList<>();
+            asMap().forEach((key, value) -> {
+                Long createdAt = created.get(key);
+                entries.add(new EntrySnapshot(String.valueOf(key), weigher.applyAsLong(value),
+                        (createdAt != null) ? (now - createdAt) / 1000 : null));
+            });
+            entries.sort(Comparator.comparing((EntrySnapshot entry) -> entry.ageSeconds,
+                    Comparator.nullsLast(Comparator.reverseOrder())));
+
+            return new Snapshot(name, stats(), loadCount.sum(), loadNanos.sum(), entries);
+        }
+    }
+
+    /**
+     * The statistics and current entries of a cache.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final long size;
+        private final long weight;
+        private final long hitCount;
+        private final long missCount;
+        private final double hitRate;
+        private final long loadCount;
+        private final double totalLoadTimeMs;
+        private final double averageLoadTimeMs;
+        private final long evictionCount;
+        private final List<EntrySnapshot> entries;
+
+        /**
+         * Creates a snapshot of a cache.
+         *
+         * @param name      The name of the cache.
+         * @param stats     The statistics recorded by the cache.
+         * @param loadCount The number of values computed after a miss.
+         * @param loadNanos The total time spent computing values in nanoseconds.
+         * @param entries   The current entries.
+         */
+        private Snapshot(String name, CacheStats stats, long loadCount, long loadNanos,
+                         List<EntrySnapshot> entries) {
+            this.name = name;
+            this.size = entries.size();
+            this.weight = entries.stream().mapToLong(entry -> entry.weight).sum();
+            this.hitCount = stats.hitCount();
+            this.missCount = stats.missCount();
+            this.hitRate = stats.hitRate();
+            this.loadCount = loadCount;
+            this.totalLoadTimeMs = loadNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+            this.averageLoadTimeMs = (loadCount > 0) ? totalLoadTimeMs / loadCount : 0;
+            this.evictionCount = stats.evictionCount();
+            this.entries = entries;
+        }
+
+        /**
+         * Returns the name of the cache.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the estimated weight of all entries in bytes.
+         *
+         * @return The weight.
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the current entries, the oldest first.
+         *
+         * @return The entries.
+         */
+        public List<EntrySnapshot> getEntries() {
+            return entries;
+        }
+    }
+
+    /**
+     * A single entry of a cache.
+     */
+    public static class EntrySnapshot {
+        private final String key;
+        private final long weight;
+        private final Long ageSeconds;
+
+        /**
+         * Creates a snapshot of an entry.
+         *
+         * @param key        The key.
+         * @param weight     The estimated weight in bytes.
+         * @param ageSeconds The time since the entry was put in seconds, or null if unknown.
+         */
+        private EntrySnapshot(String key, long weight, Long ageSeconds) {
+            this.key = key;
+            this.weight = weight;
+            this.ageSeconds = ageSeconds;
+        }
+
+        /**
+         * Returns the key of the entry.
+         *
+         * @return The key.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the estimated weight of the entry in bytes.
+         *
+         * @return The weight.
+         */
+        public long getWeight() {
+            return weight;
+        }
+    }
+}
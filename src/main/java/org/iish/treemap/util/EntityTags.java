@@ -0,0 +1,71 @@
+package org.iish.treemap.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Creates and compares strong entity tags (ETags) for conditional requests.
+ * An entity tag is derived from the version of the underlying data and the canonical form of the request,
+ * so it can be determined before the response is built.
+ */
+public class EntityTags {
+    // Responses may change with a new deployment or configuration, so every start of the application
+    // invalidates the entity tags of the previous run
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Creates a strong entity tag for the response to the given request.
+     *
+     * @param version The version of the data the response is based on.
+     * @param request The request.
+     * @param gzip    Whether the response is gzip encoded.
+     * @return The entity tag, including the surrounding quotes.
+     */
+    public static String create(String version, Request request, boolean gzip) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(EPOCH, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(version, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(request.pathInfo(), StandardCharsets.UTF_8).putByte((byte) 0);
+
+        // The order of the parameters is irrelevant, but the order of the values of a single parameter may not be
+        Map<String, String[]> params = new TreeMap<>(request.queryMap().toMap());
+        for (Map.Entry<String, String[]> param : params.entrySet()) {
+            hasher.putString(param.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+            for (String value : param.getValue())
+                hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 1);
+            hasher.putByte((byte) 2);
+        }
+
+        String hash = hasher.hash().toString().substring(0, 32);
+        return "\"" + hash + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    /**
+     * Determines whether the given If-None-Match header matches the given entity tag.
+     * As prescribed for If-None-Match, weak entity tags in the header are compared weakly.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @param entityTag   The entity tag of the current response.
+     * @return Whether the header matches the entity tag.
+     */
+    public static boolean matches(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+
+            if (tag.equals("*") || tag.equals(entityTag))
+                return true;
+        }
+
+        return false;
+    }
+}
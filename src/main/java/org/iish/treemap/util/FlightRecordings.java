@@ -0,0 +1,91 @@
+package org.iish.treemap.util;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Starts and stops Java Flight Recorder recordings on demand, including the {@link StageEvent}s.
+ * Only a single recording is kept at a time; a recording stops by itself after its maximum duration,
+ * but is kept until it is stopped, so that it can still be obtained.
+ */
+@Singleton
+public class FlightRecordings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecordings.class);
+
+    private Recording recording;
+
+    /**
+     * Returns whether there is a recording, either running or stopped after its maximum duration.
+     *
+     * @return Whether there is a recording.
+     */
+    public synchronized boolean hasRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Starts a new recording.
+     *
+     * @param settings    The name of the JFR settings to use, e.g. 'default' or 'profile'.
+     * @param maxDuration The maximum duration of the recording.
+     * @return Whether the recording was started; false if a recording is already running.
+     * @throws IOException    On failure to read the settings.
+     * @throws ParseException On failure to parse the settings.
+     */
+    public synchronized boolean start(String settings, Duration maxDuration) throws IOException, ParseException {
+        if ((recording != null) && (recording.getState() == RecordingState.RUNNING))
+            return false;
+
+        if (recording != null)
+            recording.close();
+
+        recording = new Recording(Configuration.getConfiguration(settings));
+        recording.setName("treemap");
+        recording.setDuration(maxDuration);
+        recording.enable(StageEvent.class);
+        recording.start();
+
+        LOGGER.info("Started a flight recording with the '{}' settings for at most {}.", settings, maxDuration);
+        return true;
+    }
+
+    /**
+     * Stops the current recording, if still running, and writes it in the JFR format.
+     * The recording is discarded afterwards.
+     *
+     * @param outputStream The output stream to write the recording to.
+     * @return Whether a recording was written; false if no recording was started.
+     * @throws IOException On failure to write the recording.
+     */
+    public synchronized boolean stop(OutputStream outputStream) throws IOException {
+        if (recording == null)
+            return false;
+
+        Path file = Files.createTempFile("treemap", ".jfr");
+        try {
+            if (recording.getState() == RecordingState.RUNNING)
+                recording.stop();
+            recording.dump(file);
+            Files.copy(file, outputStream);
+        }
+        finally {
+            recording.close();
+            recording = null;
+            Files.deleteIfExists(file);
+        }
+
+        LOGGER.info("Stopped the flight recording.");
+        return true;
+    }
+}
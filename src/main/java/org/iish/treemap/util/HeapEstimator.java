@@ -0,0 +1,171 @@
+package org.iish.treemap.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.iish.treemap.dataset.DataverseFile;
+import org.iish.treemap.dataset.DataverseFileListing;
+import org.iish.treemap.model.tabular.FilteredTabularData;
+import org.iish.treemap.model.tabular.MultiTabularData;
+import org.iish.treemap.model.tabular.TabularData;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Estimates the heap retained by datasets, assuming a 64-bit JVM with compressed references and compact strings.
+ * <p>
+ * The rows and their arrays are computed from the size of the dataset. The values are estimated from a sample
+ * of the rows: a value instance found in a single sampled row is taken to be unique to its row and is
+ * extrapolated to all rows, a value instance found in multiple sampled rows is taken to be shared and is
+ * counted once. Datasets of at most {@link #SAMPLE_ROWS} rows are thus estimated exactly.
+ * <p>
+ * Views on other datasets, such as filtered or combined datasets, only count their own structure,
+ * as the datasets they are based on are accounted for where they are held.
+ * Estimates are remembered for each dataset instance, as datasets never change once created.
+ */
+public class HeapEstimator {
+    private static final int SAMPLE_ROWS = 10000;
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int STRING = 24;
+    private static final int INTEGER = 16;
+    private static final int ARRAY_LIST = 24;
+    private static final int HASH_MAP_ENTRY = 32;
+    private static final int HASH_MAP = 48;
+    private static final int DATAVERSE_FILE = 40;
+
+    private static final Cache<TabularData, Long> ESTIMATES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Estimates the heap retained by the given dataset.
+     *
+     * @param data The dataset.
+     * @return The estimated number of bytes.
+     */
+    public static long estimate(TabularData data) {
+        try {
+            return ESTIMATES.get(data, () -> compute(data));
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Estimates the heap retained by the given byte array.
+     *
+     * @param bytes The byte array.
+     * @return The estimated number of bytes.
+     */
+    public static long estimate(byte[] bytes) {
+        return align(ARRAY_HEADER + bytes.length);
+    }
+
+    /**
+     * Estimates the heap retained by the given listing of the files of a dataset.
+     *
+     * @param listing The listing.
+     * @return The estimated number of bytes.
+     */
+    public static long estimate(DataverseFileListing listing) {
+        long bytes = align(OBJECT_HEADER + 3 * REFERENCE + 8) + HASH_MAP;
+        for (DataverseFile file : listing.getAllFiles()) {
+            bytes += HASH_MAP_ENTRY + DATAVERSE_FILE + estimate(file.getName());
+            if (file.getChecksum() != null)
+                bytes += estimate(file.getChecksum());
+        }
+        if (listing.getETag() != null)
+            bytes += estimate(listing.getETag());
+        if (listing.getLastModified() != null)
+            bytes += estimate(listing.getLastModified());
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap retained by the given dataset, without using the remembered estimates.
+     *
+     * @param data The dataset.
+     * @return The estimated number of bytes.
+     */
+    private static long compute(TabularData data) {
+        if (data instanceof FilteredTabularData) {
+            // The row indexes: a list of boxed integers, mostly outside of the cached range
+            int size = data.getSize();
+            return align(OBJECT_HEADER + 4 * REFERENCE) + ARRAY_LIST + align(ARRAY_HEADER + (long) size * REFERENCE)
+                    + (long) size * INTEGER;
+        }
+
+        if (data instanceof MultiTabularData) {
+            int noDatasets = ((MultiTabularData) data).getDatasets().size();
+            return align(OBJECT_HEADER + 3 * REFERENCE) + ARRAY_LIST + align(ARRAY_HEADER + noDatasets * REFERENCE);
+        }
+
+        int size = data.getSize();
+        int rowLength = data.getNumCols() + 1;
+
+        long bytes = align(OBJECT_HEADER + 2 * REFERENCE);
+        for (String header : data.getHeaders())
+            bytes += HASH_MAP_ENTRY + INTEGER + estimate(header);
+        bytes += ARRAY_LIST + align(ARRAY_HEADER + (long) size * REFERENCE);
+        bytes += size * align(ARRAY_HEADER + (long) rowLength * REFERENCE);
+
+        return bytes + estimateValues(data);
+    }
+
+    /**
+     * Estimates the heap retained by the values of the given dataset from a sample of its rows.
+     *
+     * @param data The dataset.
+     * @return The estimated number of bytes.
+     */
+    private static long estimateValues(TabularData data) {
+        int size = data.getSize();
+        if (size == 0)
+            return 0;
+
+        int noSamples = Math.min(size, SAMPLE_ROWS);
+        Map<String, Integer> occurrences = new IdentityHashMap<>();
+        for (int i = 0; i < noSamples; i++) {
+            int row = (int) ((long) i * size / noSamples);
+            for (String header : data.getHeaders()) {
+                String value = data.getValue(header, row);
+                if (value != null)
+                    occurrences.merge(value, 1, Integer::sum);
+            }
+        }
+
+        long uniqueBytes = 0, sharedBytes = 0;
+        for (Map.Entry<String, Integer> entry : occurrences.entrySet()) {
+            if (entry.getValue() == 1)
+                uniqueBytes += estimate(entry.getKey());
+            else
+                sharedBytes += estimate(entry.getKey());
+        }
+
+        return sharedBytes + uniqueBytes * size / noSamples;
+    }
+
+    /**
+     * Estimates the heap retained by the given string, including its backing array.
+     *
+     * @param value The string.
+     * @return The estimated number of bytes.
+     */
+    private static long estimate(String value) {
+        boolean latin1 = value.chars().allMatch(c -> c < 256);
+        return STRING + align(ARRAY_HEADER + (long) value.length() * (latin1 ? 1 : 2));
+    }
+
+    /**
+     * Aligns the given size of an object to 8 bytes.
+     *
+     * @param size The size in bytes.
+     * @return The aligned size in bytes.
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,216 @@
+package org.iish.treemap.util;
+
+import org.iish.treemap.config.Config;
+import org.iish.treemap.config.StandardDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Accounts for the memory held by the standard dataset and by the entries of every cache,
+ * and for the memory allocated by the requests in flight, using the estimates of {@link HeapEstimator}.
+ * Logs a warning when the estimated memory held reaches the configured percentage of the memory budget.
+ */
+@Singleton
+public class MemoryAccounting {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryAccounting.class);
+    private static final long WARN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final int NO_LARGEST_ITEMS = 10;
+
+    private final StandardDataset standardDataset;
+    private final CacheStatistics cacheStatistics;
+    private final Metrics metrics;
+    private final long budgetBytes;
+    private final long warnBytes;
+
+    private volatile long lastWarning;
+
+    /**
+     * Creates the memory accounting.
+     *
+     * @param config          The configuration to use.
+     * @param standardDataset The standard dataset.
+     * @param cacheStatistics The registry of caches with statistics.
+     * @param metrics         The metrics holding the requests in flight.
+     */
+    @Inject
+    public MemoryAccounting(Config config, StandardDataset standardDataset, CacheStatistics cacheStatistics,
+                            Metrics metrics) {
+        this.standardDataset = standardDataset;
+        this.cacheStatistics = cacheStatistics;
+        this.metrics = metrics;
+
+        long budgetMegabytes = (config.memory != null) ? config.memory.budgetMegabytes : 0;
+        int warnPercentage = ((config.memory != null) && (config.memory.warnPercentage > 0))
+                ? config.memory.warnPercentage : 80;
+
+        this.budgetBytes = (budgetMegabytes > 0) ? budgetMegabytes * 1024 * 1024 : Runtime.getRuntime().maxMemory();
+        this.warnBytes = budgetBytes / 100 * warnPercentage;
+    }
+
+    /**
+     * Creates a report of the memory held by the standard dataset and the caches,
+     * and of the memory allocated by the requests in flight.
+     *
+     * @return The report.
+     */
+    public Report getReport() {
+        List<Component> components = new ArrayList<>();
+
+        StandardDataset.Snapshot standard = standardDataset.getSnapshot();
+        if (standard.getDataset() != null)
+            components.add(new Component("standardDataset", Collections.singletonList(
+                    new Item("dataset@" + standard.getVersion(), HeapEstimator.estimate(standard.getDataset())))));
+
+        for (CacheStatistics.Snapshot snapshot : cacheStatistics.getSnapshots())
+            components.add(new Component("cache:" + snapshot.getName(), snapshot.getEntries().stream()
+                    .map(entry -> new Item(entry.getKey(), entry.getWeight()))
+                    .collect(Collectors.toList())));
+
+        components.sort(Comparator.comparingLong((Component component) -> component.bytes).reversed());
+
+        List<RequestInFlight> requests = metrics.getRequestsInFlight().stream()
+                .map(RequestInFlight::new)
+                .sorted(Comparator.comparingLong((RequestInFlight request) -> request.allocatedBytes).reversed())
+                .collect(Collectors.toList());
+
+        return new Report(budgetBytes, components, requests);
+    }
+
+    /**
+     * Logs a warning if the estimated memory held reaches the warning threshold of the budget,
+     * at most once a minute.
+     */
+    public void checkBudget() {
+        if (System.currentTimeMillis() - lastWarning < WARN_INTERVAL_MS)
+            return;
+
+        Report report = getReport();
+        if (report.accountedBytes >= warnBytes) {
+            lastWarning = System.currentTimeMillis();
+            LOGGER.warn("Datasets and caches hold an estimated {} MB, {}% of the memory budget of {} MB: {}.",
+                    toMegabytes(report.accountedBytes), Math.round(report.budgetUsedPercentage),
+                    toMegabytes(budgetBytes), report.components.stream()
+                            .map(component -> component.name + " " + toMegabytes(component.bytes) + " MB")
+                            .collect(Collectors.joining(", ")));
+        }
+    }
+
+    /**
+     * Converts bytes to megabytes.
+     *
+     * @param bytes The bytes.
+     * @return The megabytes, rounded down.
+     */
+    private static long toMegabytes(long bytes) {
+        return bytes / 1024 / 1024;
+    }
+
+    /**
+     * The memory held by the standard dataset and the caches, and allocated by the requests in flight.
+     */
+    public static class Report {
+        private final long budgetBytes;
+        private final long accountedBytes;
+        private final double budgetUsedPercentage;
+        private final long heapUsedBytes;
+        private final long heapCommittedBytes;
+        private final long heapMaxBytes;
+        private final List<Component> components;
+        private final List<RequestInFlight> requestsInFlight;
+
+        /**
+         * Creates a report.
+         *
+         * @param budgetBytes      The memory budget in bytes.
+         * @param components       The components holding memory.
+         * @param requestsInFlight The requests in flight.
+         */
+        private Report(long budgetBytes, List<Component> components, List<RequestInFlight> requestsInFlight) {
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+            this.budgetBytes = budgetBytes;
+            this.accountedBytes = components.stream().mapToLong(component -> component.bytes).sum();
+            this.budgetUsedPercentage = 100.0 * accountedBytes / budgetBytes;
+            this.heapUsedBytes = heap.getUsed();
+            this.heapCommittedBytes = heap.getCommitted();
+            this.heapMaxBytes = heap.getMax();
+            this.components = components;
+            this.requestsInFlight = requestsInFlight;
+        }
+    }
+
+    /**
+     * The memory held by the standard dataset or by a cache, with its largest items.
+     */
+    public static class Component {
+        private final String name;
+        private final long bytes;
+        private final int noItems;
+        private final List<Item> largestItems;
+
+        /**
+         * Creates a component.
+         *
+         * @param name  The name of the component.
+         * @param items All items of the component.
+         */
+        private Component(String name, List<Item> items) {
+            this.name = name;
+            this.bytes = items.stream().mapToLong(item -> item.bytes).sum();
+            this.noItems = items.size();
+            this.largestItems = items.stream()
+                    .sorted(Comparator.comparingLong((Item item) -> item.bytes).reversed())
+                    .limit(NO_LARGEST_ITEMS)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A single dataset or cache entry.
+     */
+    public static class Item {
+        private final String key;
+        private final long bytes;
+
+        /**
+         * Creates an item.
+         *
+         * @param key   The key of the item.
+         * @param bytes The estimated memory held in bytes.
+         */
+        private Item(String key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The memory allocated by a request in flight.
+     */
+    public static class RequestInFlight {
+        private final String request;
+        private final String version;
+        private final double elapsedMs;
+        private final long allocatedBytes;
+
+        /**
+         * Creates a request in flight from its timings.
+         *
+         * @param timings The timings of the request.
+         */
+        private RequestInFlight(RequestTimings timings) {
+            this.request = timings.getRequest();
+            this.version = timings.getVersion();
+            this.elapsedMs = timings.getElapsedNanos() / 1e6;
+            this.allocatedBytes = timings.getAllocatedBytes();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.iish.treemap.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.hotspot.DefaultExports;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Records the time spent and the number of rows processed in each stage of building a treemap,
+ * and exposes them together with JVM and thread pool gauges in the Prometheus text format.
+ * Recording is lock-free: every histogram bucket is a striped counter.
+ * The stages are also recorded in the {@link RequestTimings} of the request handled by the current thread, if any,
+ * and emitted as {@link StageEvent}s for the Java Flight Recorder.
+ */
+@Singleton
+public class Metrics {
+    public static final String DATAVERSE = "dataverse";
+    public static final String XLSX = "xlsx";
+    public static final String DERIVE = "derive";
+    public static final String DEFAULT_FILTER = "default_filter";
+    public static final String EXTEND_DATA = "extend_data";
+    public static final String FILTER = "filter";
+    public static final String REQUEST_FILTER = "request_filter";
+    public static final String BUILD_TREEMAP = "build_treemap";
+    public static final String BUILD_FILTER_INFO = "build_filter_info";
+    public static final String SERIALIZE = "serialize";
+    public static final String ENCODE = "encode";
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+
+    private final Histogram stageSeconds = Histogram.build()
+            .name("treemap_stage_seconds")
+            .help("Time spent in each stage of building a response.")
+            .labelNames("stage")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register(registry);
+
+    private final Histogram stageRows = Histogram.build()
+            .name("treemap_stage_rows")
+            .help("Number of rows resulting from each stage of building a response.")
+            .labelNames("stage")
+            .exponentialBuckets(100, 10, 6)
+            .register(registry);
+
+    private final ThreadLocal<RequestTimings> requestTimings = new ThreadLocal<>();
+    private final Set<RequestTimings> requestsInFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the metrics, including the JVM metrics and the gauges of the common fork join pool.
+     */
+    public Metrics() {
+        DefaultExports.register(registry);
+        new ForkJoinPoolCollector(ForkJoinPool.commonPool(), "common").register(registry);
+    }
+
+    /**
+     * Starts recording the stages of the request handled by the current thread.
+     *
+     * @param request A description of the request, such as its path and query string.
+     * @return The timings of the request.
+     */
+    public RequestTimings startRequest(String request) {
+        RequestTimings timings = new RequestTimings(request);
+        requestTimings.set(timings);
+        requestsInFlight.add(timings);
+        return timings;
+    }
+
+    /**
+     * Stops recording the stages of the request handled by the current thread.
+     *
+     * @return The timings of the request, or null if no request was started.
+     */
+    public RequestTimings finishRequest() {
+        RequestTimings timings = requestTimings.get();
+        requestTimings.remove();
+        if (timings != null)
+            requestsInFlight.remove(timings);
+        return timings;
+    }
+
+    /**
+     * Returns the timings of all requests currently being handled.
+     *
+     * @return The timings of the requests in flight.
+     */
+    public Collection<RequestTimings> getRequestsInFlight() {
+        return Collections.unmodifiableSet(requestsInFlight);
+    }
+
+    /**
+     * Returns the timings of the request handled by the current thread.
+     *
+     * @return The timings of the request, or null if no request was started.
+     */
+    public RequestTimings getRequestTimings() {
+        return requestTimings.get();
+    }
+
+    /**
+     * Starts timing the given stage; the time is recorded when the timer is closed.
+     *
+     * @param stage The stage.
+     * @return The timer.
+     */
+    public Timer time(String stage) {
+        return time(stage, requestTimings.get());
+    }
+
+    /**
+     * Starts timing the given stage, run on behalf of the given request by another thread;
+     * the time is recorded when the timer is closed.
+     *
+     * @param stage   The stage.
+     * @param timings The timings of the request, or null if not recording a request.
+     * @return The timer.
+     */
+    public Timer time(String stage, RequestTimings timings) {
+        return new Timer(stage, timings, true);
+    }
+
+    /**
+     * Starts timing a part of a stage, such as a single filter; the time is only emitted as a flight recorder event
+     * when the timer is closed, as the stage as a whole is already recorded.
+     *
+     * @param stage The part of the stage.
+     * @return The timer.
+     */
+    public Timer trace(String stage) {
+        return new Timer(stage, requestTimings.get(), false);
+    }
+
+    /**
+     * Records a stage that ran over many small steps, with the time accumulated over all steps.
+     *
+     * @param stage      The stage.
+     * @param dataset    The id of the file or the version of the datasets.
+     * @param nanos      The accumulated time in nanoseconds.
+     * @param inputRows  The number of rows the stage started with.
+     * @param outputRows The number of rows resulting from the stage.
+     */
+    public void record(String stage, String dataset, long nanos, long inputRows, long outputRows) {
+        record(stage, requestTimings.get(), dataset, nanos, inputRows, outputRows);
+    }
+
+    /**
+     * Records a stage that ran over many small steps on behalf of the given request by another thread,
+     * with the time accumulated over all steps.
+     *
+     * @param stage      The stage.
+     * @param timings    The timings of the request, or null if not recording a request.
+     * @param dataset    The id of the file or the version of the datasets.
+     * @param nanos      The accumulated time in nanoseconds.
+     * @param inputRows  The number of rows the stage started with.
+     * @param outputRows The number of rows resulting from the stage.
+     */
+    public void record(String stage, RequestTimings timings, String dataset, long nanos, long inputRows,
+                       long outputRows) {
+        record(stage, timings, nanos, outputRows);
+
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.requestId = (timings != null) ? timings.getId() : 0;
+            event.stage = stage;
+            event.dataset = dataset;
+            event.inputRows = inputRows;
+            event.outputRows = outputRows;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the time spent in a stage and the number of rows resulting from the stage,
+     * both in the histograms and in the timings of the request.
+     *
+     * @param stage      The stage.
+     * @param timings    The timings of the request, or null if not recording a request.
+     * @param nanos      The time spent in nanoseconds.
+     * @param outputRows The number of rows resulting from the stage, or -1 if unknown.
+     */
+    private void record(String stage, RequestTimings timings, long nanos, long outputRows) {
+        stageSeconds.labels(stage).observe(nanos / Collector.NANOSECONDS_PER_SECOND);
+        if (outputRows >= 0)
+            stageRows.labels(stage).observe(outputRows);
+
+        if (timings != null) {
+            timings.addTime(stage, nanos);
+            if (outputRows >= 0)
+                timings.addRows(stage, outputRows);
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param writer The writer.
+     * @throws IOException On failure to write.
+     */
+    public void write(Writer writer) throws IOException {
+        TextFormat.write004(writer, registry.metricFamilySamples());
+    }
+
+    /**
+     * Returns the content type of the Prometheus text format.
+     *
+     * @return The content type.
+     */
+    public String getContentType() {
+        return TextFormat.CONTENT_TYPE_004;
+    }
+
+    /**
+     * Times a stage, in the histograms and in the timings of the request, and as a flight recorder event.
+     */
+    public class Timer implements AutoCloseable {
+        private final String stage;
+        private final RequestTimings timings;
+        private final boolean recordMetrics;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+
+        private String dataset;
+        private String detail;
+        private long inputRows = -1;
+        private long outputRows = -1;
+
+        /**
+         * Starts timing the given stage.
+         *
+         * @param stage         The stage.
+         * @param timings       The timings of the request, or null if not recording a request.
+         * @param recordMetrics Whether to record the stage in the histograms and the timings of the request.
+         */
+        private Timer(String stage, RequestTimings timings, boolean recordMetrics) {
+            this.stage = stage;
+            this.timings = timings;
+            this.recordMetrics = recordMetrics;
+            this.dataset = (timings != null) ? timings.getVersion() : null;
+
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Sets the dataset the stage works on; by default the datasets of the request.
+         *
+         * @param dataset The id of the file or the version of the datasets.
+         */
+        public void setDataset(String dataset) {
+            this.dataset = dataset;
+        }
+
+        /**
+         * Sets a description of what the stage did, such as the filter applied.
+         *
+         * @param detail The description.
+         */
+        public void setDetail(String detail) {
+            this.detail = detail;
+        }
+
+        /**
+         * Sets the number of rows the stage started with and the number of rows resulting from the stage.
+         *
+         * @param inputRows  The number of rows the stage started with.
+         * @param outputRows The number of rows resulting from the stage, or -1 if not applicable.
+         */
+        public void setRows(long inputRows, long outputRows) {
+            this.inputRows = inputRows;
+            this.outputRows = outputRows;
+        }
+
+        /**
+         * Records the time spent since the timer was started.
+         */
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            if (recordMetrics)
+                record(stage, timings, nanos, outputRows);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.requestId = (timings != null) ? timings.getId() : 0;
+                event.stage = stage;
+                event.detail = detail;
+                event.dataset = dataset;
+                event.inputRows = inputRows;
+                event.outputRows = outputRows;
+                event.time = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Collects the gauges of a fork join pool, such as the pool used by parallel streams.
+     */
+    private static class ForkJoinPoolCollector extends Collector {
+        private final ForkJoinPool pool;
+        private final String name;
+
+        /**
+         * Creates a collector for the given pool.
+         *
+         * @param pool The pool.
+         * @param name The name of the pool.
+         */
+        private ForkJoinPoolCollector(ForkJoinPool pool, String name) {
+            this.pool = pool;
+            this.name = name;
+        }
+
+        /**
+         * Collects the current state of the pool.
+         *
+         * @return The gauges.
+         */
+        @Override
+        public List<MetricFamilySamples> collect() {
+            return Arrays.asList(
+                    gauge("parallelism", "The target parallelism of the pool.", pool.getParallelism()),
+                    gauge("threads", "The number of started threads.", pool.getPoolSize()),
+                    gauge("active_threads", "The number of threads executing or stealing tasks.",
+                            pool.getActiveThreadCount()),
+                    gauge("running_threads", "The number of threads not blocked waiting.",
+                            pool.getRunningThreadCount()),
+                    gauge("queued_tasks", "The number of tasks queued by the threads of the pool.",
+                            pool.getQueuedTaskCount()),
+                    gauge("queued_submissions", "The number of tasks submitted from outside the pool.",
+                            pool.getQueuedSubmissionCount()),
+                    gauge("steals", "The number of tasks stolen from another thread.", pool.getStealCount())
+            );
+        }
+
+        /**
+         * Creates a gauge for the pool.
+         *
+         * @param metric The name of the metric.
+         * @param help   The description of the metric.
+         * @param value  The value.
+         * @return The gauge.
+         */
+        private MetricFamilySamples gauge(String metric, String help, double value) {
+            GaugeMetricFamily gauge = new GaugeMetricFamily(
+                    "treemap_forkjoin_pool_" + metric, help, Arrays.asList("pool"));
+            gauge.addMetric(Arrays.asList(name), value);
+            return gauge;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.iish.treemap.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the time spent and the number of rows produced in each stage while handling a single request,
+ * together with the version of the datasets the response is based on.
+ * A stage that runs more than once for a request, e.g. for each side of a diff, is accumulated.
+ * Stages may be run on behalf of the request by other threads, such as loading multiple files concurrently.
+ * The bytes allocated by the thread handling the request are tracked as well, if the JVM supports it.
+ */
+public class RequestTimings {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final long id = IDS.incrementAndGet();
+    private final String request;
+    private final long threadId = Thread.currentThread().getId();
+    private final long start = System.nanoTime();
+    private final long allocatedAtStart = getThreadAllocatedBytes(threadId);
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private final Map<String, Long> stageRows = new LinkedHashMap<>();
+    private final List<Map.Entry<String, String>> markers = new ArrayList<>();
+    private volatile String version;
+
+    /**
+     * Starts the timings of a request, handled by the current thread.
+     *
+     * @param request A description of the request, such as its path and query string.
+     */
+    public RequestTimings(String request) {
+        this.request = request;
+    }
+
+    /**
+     * Returns the id of the request, unique within this instance of the application.
+     *
+     * @return The id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the description of the request.
+     *
+     * @return The description of the request.
+     */
+    public String getRequest() {
+        return request;
+    }
+
+    /**
+     * Adds the time spent in the given stage.
+     *
+     * @param stage The stage.
+     * @param nanos The time spent in nanoseconds.
+     */
+    public synchronized void addTime(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    /**
+     * Adds the number of rows produced by the given stage.
+     *
+     * @param stage The stage.
+     * @param rows  The number of rows.
+     */
+    public synchronized void addRows(String stage, long rows) {
+        stageRows.merge(stage, rows, Long::sum);
+    }
+
+    /**
+     * Adds a marker, such as whether a cache lookup was a hit or a miss.
+     *
+     * @param name        The name of the marker.
+     * @param description The description of the marker.
+     */
+    public synchronized void addMarker(String name, String description) {
+        markers.add(new AbstractMap.SimpleImmutableEntry<>(name, description));
+    }
+
+    /**
+     * Returns the time spent in each stage in nanoseconds, in the order the stages were first run.
+     *
+     * @return The time spent by stage.
+     */
+    public synchronized Map<String, Long> getStageNanos() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(stageNanos));
+    }
+
+    /**
+     * Returns the number of rows produced by each stage, in the order the stages were first run.
+     *
+     * @return The number of rows by stage.
+     */
+    public synchronized Map<String, Long> getStageRows() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(stageRows));
+    }
+
+    /**
+     * Returns the time since the request was started in nanoseconds.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the thread handling the request since the request was started.
+     *
+     * @return The number of bytes allocated, or -1 if not supported by the JVM.
+     */
+    public long getAllocatedBytes() {
+        long allocated = getThreadAllocatedBytes(threadId);
+        return ((allocated < 0) || (allocatedAtStart < 0)) ? -1 : allocated - allocatedAtStart;
+    }
+
+    /**
+     * Returns the version of the datasets the response is based on.
+     *
+     * @return The version of the datasets, or null if unknown.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the datasets the response is based on.
+     *
+     * @param version The version of the datasets.
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Returns the markers and the time spent in each stage so far, together with the total time,
+     * as the value of a W3C Server-Timing header.
+     *
+     * @return The value of the Server-Timing header.
+     */
+    public synchronized String getServerTiming() {
+        StringJoiner serverTiming = new StringJoiner(", ");
+        for (Map.Entry<String, String> marker : markers)
+            serverTiming.add(marker.getKey() + ";desc=\"" + marker.getValue() + "\"");
+        stageNanos.forEach((stage, nanos) -> serverTiming.add(stage + ";dur=" + toMillis(nanos)));
+        serverTiming.add("total;dur=" + toMillis(getElapsedNanos()));
+        return serverTiming.toString();
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds, with microsecond precision.
+     *
+     * @param nanos The nanoseconds.
+     * @return The milliseconds.
+     */
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Returns the total number of bytes allocated by the given thread so far.
+     *
+     * @param threadId The id of the thread.
+     * @return The number of bytes allocated, or -1 if not supported by the JVM.
+     */
+    private static long getThreadAllocatedBytes(long threadId) {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                return threads.getThreadAllocatedBytes(threadId);
+        }
+        return -1;
+    }
+}
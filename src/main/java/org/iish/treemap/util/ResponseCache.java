@@ -0,0 +1,133 @@
+package org.iish.treemap.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.iish.treemap.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds the final, encoded bytes of responses, so that repeated requests are served
+ * without serializing or compressing the response again.
+ * Responses are identified by their entity tag, which covers both the data and the request.
+ */
+@Singleton
+public class ResponseCache {
+    private static final int MINIMUM_COMPRESS_SIZE = 1024;
+
+    private final Cache<String, EncodedResponse> responses;
+
+    /**
+     * Creates the response cache.
+     *
+     * @param config          The configuration to use.
+     * @param cacheStatistics The registry of caches with statistics.
+     */
+    @Inject
+    public ResponseCache(Config config, CacheStatistics cacheStatistics) {
+        this.responses = cacheStatistics.build(CacheStatistics.RESPONSES, CacheBuilder.newBuilder()
+                .maximumWeight(config.cache.maximumResponsesMegabytes * 1024 * 1024)
+                .weigher((String entityTag, EncodedResponse response) -> response.getBytes().length)
+                .expireAfterAccess(config.cache.maxHoursAccessTime, TimeUnit.HOURS),
+                (EncodedResponse response) -> HeapEstimator.estimate(response.getBytes()));
+    }
+
+    /**
+     * Returns the cached response with the given entity tag.
+     *
+     * @param entityTag The entity tag of the response.
+     * @return The cached response, or null if not cached.
+     */
+    public EncodedResponse get(String entityTag) {
+        return responses.getIfPresent(entityTag);
+    }
+
+    /**
+     * Encodes the given response body and caches the result.
+     * Bodies are only compressed if the client accepts gzip and the body is not too small to benefit.
+     *
+     * @param entityTag   The entity tag of the response.
+     * @param contentType The content type of the response.
+     * @param body        The response body.
+     * @param gzip        Whether the client accepts gzip encoded responses.
+     * @return The encoded response.
+     * @throws IOException On failure to compress the body.
+     */
+    public EncodedResponse put(String entityTag, String contentType, byte[] body, boolean gzip) throws IOException {
+        EncodedResponse response = (gzip && (body.length >= MINIMUM_COMPRESS_SIZE))
+                ? new EncodedResponse(contentType, "gzip", compress(body))
+                : new EncodedResponse(contentType, null, body);
+
+        responses.put(entityTag, response);
+        return response;
+    }
+
+    /**
+     * Compresses the given bytes with gzip.
+     *
+     * @param body The bytes to compress.
+     * @return The compressed bytes.
+     * @throws IOException On failure to compress.
+     */
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * A response ready to be sent as is.
+     */
+    public static class EncodedResponse {
+        private final String contentType;
+        private final String contentEncoding;
+        private final byte[] bytes;
+
+        /**
+         * Creates an encoded response.
+         *
+         * @param contentType     The content type.
+         * @param contentEncoding The content encoding, or null if not encoded.
+         * @param bytes           The encoded bytes.
+         */
+        private EncodedResponse(String contentType, String contentEncoding, byte[] bytes) {
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the content type.
+         *
+         * @return The content type.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the content encoding.
+         *
+         * @return The content encoding, or null if not encoded.
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Returns the encoded bytes.
+         *
+         * @return The encoded bytes.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.iish.treemap.util;
+
+import com.google.gson.Gson;
+import org.iish.treemap.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every request slower than the configured threshold to a rolling journal,
+ * with its full parameters, the version of the datasets and the time spent in each stage,
+ * so that slow requests can be replayed later on.
+ * The journal holds an entry as JSON on each line, and is written to the file given by
+ * the 'treemap.journal' system property; without it, no journal is kept.
+ * When the journal reaches the configured size (if any), it is rolled over to 'journal.1', 'journal.2', etc.
+ */
+@Singleton
+public class SlowRequestJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowRequestJournal.class);
+    private static final Gson GSON = new Gson();
+
+    private final Path path;
+    private final long slowRequestNanos;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    /**
+     * Creates the journal of slow requests.
+     *
+     * @param config The configuration to use.
+     */
+    @Inject
+    public SlowRequestJournal(Config config) {
+        String journalPath = System.getProperty("treemap.journal", null);
+        this.path = ((journalPath != null) && (config.journal != null)) ? Paths.get(journalPath) : null;
+        this.slowRequestNanos = (config.journal != null)
+                ? TimeUnit.MILLISECONDS.toNanos(config.journal.slowRequestMs) : Long.MAX_VALUE;
+        this.maxFileBytes = (config.journal != null) ? config.journal.maxFileMegabytes * 1024 * 1024 : 0;
+        this.maxFiles = (config.journal != null) ? Math.max(config.journal.maxFiles, 1) : 1;
+
+        if (this.path != null)
+            LOGGER.info("Recording requests taking at least {} ms to {}.",
+                    TimeUnit.NANOSECONDS.toMillis(slowRequestNanos), path);
+    }
+
+    /**
+     * Records the given request if it took at least the configured threshold.
+     *
+     * @param request The request.
+     * @param status  The status code of the response.
+     * @param timings The timings of the request.
+     */
+    public void record(Request request, int status, RequestTimings timings) {
+        long elapsedNanos = timings.getElapsedNanos();
+        if ((path == null) || (elapsedNanos < slowRequestNanos))
+            return;
+
+        Map<String, List<String>> params = new TreeMap<>();
+        request.queryMap().toMap().forEach((name, values) -> params.put(name, Arrays.asList(values)));
+
+        Map<String, Double> stages = new LinkedHashMap<>();
+        timings.getStageNanos().forEach((stage, nanos) -> stages.put(stage, toMillis(nanos)));
+
+        Entry entry = new Entry(Instant.now().toString(), request.pathInfo(), params, timings.getVersion(),
+                status, toMillis(elapsedNanos), stages, new LinkedHashMap<>(timings.getStageRows()));
+
+        try {
+            write(GSON.toJson(entry) + "\n");
+        }
+        catch (IOException e) {
+            LOGGER.warn("Failed to record a slow request to the journal!", e);
+        }
+    }
+
+    /**
+     * Appends a line to the journal, rolling the journal over first if it would grow beyond the maximum size.
+     *
+     * @param line The line.
+     * @throws IOException On failure to write.
+     */
+    private synchronized void write(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if ((maxFileBytes > 0) && Files.exists(path) && (Files.size(path) + bytes.length > maxFileBytes))
+            rollOver();
+
+        Files.write(path, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Rolls the journal over: every older journal moves up one number and the oldest one is dropped.
+     *
+     * @throws IOException On failure to move the journals.
+     */
+    private void rollOver() throws IOException {
+        Files.deleteIfExists(getRolledPath(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            Path rolledPath = getRolledPath(i);
+            if (Files.exists(rolledPath))
+                Files.move(rolledPath, getRolledPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Returns the path of a rolled over journal.
+     *
+     * @param number The number of the journal; 0 for the current journal.
+     * @return The path.
+     */
+    private Path getRolledPath(int number) {
+        return (number == 0) ? path : path.resolveSibling(path.getFileName() + "." + number);
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds, keeping microsecond precision.
+     *
+     * @param nanos The nanoseconds.
+     * @return The milliseconds.
+     */
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Parses a line of the journal.
+     *
+     * @param line The line.
+     * @return The entry.
+     */
+    public static Entry parse(String line) {
+        return GSON.fromJson(line, Entry.class);
+    }
+
+    /**
+     * A single slow request in the journal.
+     */
+    public static class Entry {
+        private final String time;
+        private final String path;
+        private final Map<String, List<String>> params;
+        private final String version;
+        private final int status;
+        private final double totalMs;
+        private final Map<String, Double> stagesMs;
+        private final Map<String, Long> stageRows;
+
+        /**
+         * Creates an entry.
+         *
+         * @param time      The time the request was recorded.
+         * @param path      The path of the request.
+         * @param params    The query parameters of the request.
+         * @param version   The version of the datasets the response is based on.
+         * @param status    The status code of the response.
+         * @param totalMs   The total time spent in milliseconds.
+         * @param stagesMs  The time spent in each stage in milliseconds.
+         * @param stageRows The number of rows produced by each stage.
+         */
+        private Entry(String time, String path, Map<String, List<String>> params, String version, int status,
+                      double totalMs, Map<String, Double> stagesMs, Map<String, Long> stageRows) {
+            this.time = time;
+            this.path = path;
+            this.params = params;
+            this.version = version;
+            this.status = status;
+            this.totalMs = totalMs;
+            this.stagesMs = stagesMs;
+            this.stageRows = stageRows;
+        }
+
+        /**
+         * Returns the time the request was recorded, in ISO-8601 format.
+         *
+         * @return The time.
+         */
+        public String getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the path of the request.
+         *
+         * @return The path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the query parameters of the request.
+         *
+         * @return The query parameters with all their values.
+         */
+        public Map<String, List<String>> getParams() {
+            return params;
+        }
+
+        /**
+         * Returns the version of the datasets the response is based on.
+         *
+         * @return The version of the datasets, or null if unknown.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the status code of the response.
+         *
+         * @return The status code.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the total time spent in milliseconds.
+         *
+         * @return The total time.
+         */
+        public double getTotalMs() {
+            return totalMs;
+        }
+
+        /**
+         * Returns the time spent in each stage in milliseconds.
+         * No stages are recorded when the response was served from the response cache.
+         *
+         * @return The time spent by stage.
+         */
+        public Map<String, Double> getStagesMs() {
+            return stagesMs;
+        }
+
+        /**
+         * Returns the number of rows produced by each stage.
+         *
+         * @return The number of rows by stage.
+         */
+        public Map<String, Long> getStageRows() {
+            return stageRows;
+        }
+    }
+}
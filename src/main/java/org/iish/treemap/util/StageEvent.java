@@ -0,0 +1,42 @@
+package org.iish.treemap.util;
+
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event for a stage of building a response, such as fetching a file from Dataverse,
+ * parsing it, filtering the dataset or building the treemap.
+ * Stages run over many small steps, such as deriving the virtual columns of each row,
+ * have no duration of their own; their accumulated time is given instead.
+ */
+@Name("org.iish.treemap.Stage")
+@Label("Treemap Stage")
+@Category("Treemap")
+@Description("A stage of building a treemap response.")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Request Id")
+    @Description("The id of the request, or 0 outside of a request.")
+    long requestId;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Detail")
+    @Description("What the stage did, such as the filter applied.")
+    String detail;
+
+    @Label("Dataset")
+    @Description("The id of the file or the version of the datasets.")
+    String dataset;
+
+    @Label("Input Rows")
+    long inputRows;
+
+    @Label("Output Rows")
+    long outputRows;
+
+    @Label("Time")
+    @Description("The time spent in the stage, also when accumulated over many small steps.")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+}
@@ -68,11 +68,30 @@ public class XlsxReader {
             sheetParser.setContentHandler(handler);
             sheetParser.parse(sheetSource);
         }
+        catch (StopReadingException e) {
+            // The consumer has read all the rows it needs
+        }
         catch (Exception e) {
             throw new XlsxException("Failure to read an Excel file", e);
         }
     }
 
+    /**
+     * Reads only the first row of the Excel file, which usually holds the headers,
+     * and stops parsing the rest of the sheet.
+     *
+     * @return The first row, or null if the sheet is empty.
+     * @throws XlsxException On failure to parse the Excel file.
+     */
+    public Row readFirstRow() throws XlsxException {
+        Row[] firstRow = new Row[1];
+        read((Row row) -> {
+            firstRow[0] = row;
+            throw new StopReadingException();
+        });
+        return firstRow[0];
+    }
+
     /**
      * Represents a row in an Excel file.
      */
@@ -90,6 +109,20 @@ public class XlsxReader {
         public String value;
     }
 
+    /**
+     * Thrown by a consumer of rows to stop reading the remaining rows of the Excel file.
+     */
+    private static class StopReadingException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates the signal to stop reading, without the cost of filling in a stack trace.
+         */
+        private StopReadingException() {
+            super(null, null, false, false);
+        }
+    }
+
     /**
      * A handler class that listens to the read events and builds Row and Cell objects to pass on.
      */
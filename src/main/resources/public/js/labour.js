@@ -6,6 +6,9 @@
     var treemap = new Treemap(d3, 5); // TODO: Determine based on size of param 'hierarchy'
     var render = false;
     var updateTimeout = null;
+    var playTimeout = null;
+    var playButton = $('.play');
+    var playLabel = playButton.text().trim();
 
     $('.download.svg').click(function () {
         treemap.downloadSVG('treemap.svg');
@@ -19,6 +22,36 @@
         treemap.downloadGrey('treemap.png');
     });
 
+    playButton.click(function () {
+        if (playButton.hasClass('disabled'))
+            return;
+
+        playButton.addClass('disabled');
+        // Every time period shows its own closest year, so a selected year does not apply
+        var url = getTreemapUrlWithFilters('treemap/periods', ['filter:bmyear']);
+        treemap.loadTimePeriodsFromUrl(url, function (treemapsInfo) {
+            render = true;
+            updateValues(treemapsInfo.filterInfo);
+
+            $('#on-start').slideUp();
+            $('#treemap').slideDown();
+
+            var timePeriods = Object.keys(treemapsInfo.treemaps).sort();
+            (function play(i) {
+                if (i < timePeriods.length) {
+                    playButton.text(playLabel + ' (' + timePeriods[i] + ')');
+                    treemap.render(treemapsInfo.treemaps[timePeriods[i]]);
+                    playTimeout = setTimeout(function () {
+                        play(i + 1);
+                    }, 2500);
+                }
+                else {
+                    stopPlaying();
+                }
+            })(0);
+        });
+    });
+
     $('.close').click(function () {
         $('#info').slideUp();
     });
@@ -169,7 +202,13 @@
         form.find('[data-toggle="tooltip"]').tooltip();
     }
 
+    function stopPlaying() {
+        clearTimeout(playTimeout);
+        playButton.text(playLabel).removeClass('disabled');
+    }
+
     function reload() {
+        stopPlaying();
         clearTimeout(updateTimeout);
         updateTimeout = setTimeout(function () {
             var allowWorldPopulationInclude = true;
@@ -196,12 +235,14 @@
         }, 0);
     }
 
-    function getTreemapUrlWithFilters() {
+    function getTreemapUrlWithFilters(path, excludedFilters) {
         var query = window.location.search;
-        var serialized = filters.find('form').serialize();
+        var serialized = $.param(filters.find('form').serializeArray().filter(function (elem) {
+            return !excludedFilters || (excludedFilters.indexOf(elem.name) < 0);
+        }));
         if (serialized.length > 0)
             query += ('&' + serialized);
-        return 'treemap' + query;
+        return (path || 'treemap') + query + '&format=columnar';
     }
 
     function updateValues(filterInfo) {
@@ -112,7 +112,7 @@ function Treemap(d3, maxNoHierarchies) {
     // -------------------------------------------------------------------------------------------------------- //
 
     this.loadFromUrl = function (url, callback) {
-        d3.json(url, function (error, treemapInfo) {
+        load(url, function (error, treemapInfo) {
             if (error) throw error;
 
             setUpLegend(treemapInfo.legend);
@@ -122,8 +122,22 @@ function Treemap(d3, maxNoHierarchies) {
         });
     };
 
+    this.loadTimePeriodsFromUrl = function (url, callback) {
+        load(url, function (error, treemapsInfo) {
+            if (error) throw error;
+
+            setUpLegend(treemapsInfo.legend);
+
+            callback(treemapsInfo);
+        });
+    };
+
+    this.render = function (root) {
+        setUpTreemap(root);
+    };
+
     this.getTreemapInfo = function (url, callback) {
-        d3.json(url, function (error, treemapInfo) {
+        load(url, function (error, treemapInfo) {
             if (error) throw error;
             callback(treemapInfo);
         });
@@ -173,6 +187,155 @@ function Treemap(d3, maxNoHierarchies) {
 
     // -------------------------------------------------------------------------------------------------------- //
 
+    // Loads treemap information in any of the formats of the server ('format' parameter):
+    // nested JSON (default), columnar JSON or columnar CBOR. Columnar treemaps are decoded into nested treemaps.
+    var load = function (url, callback) {
+        var onLoad = function (error, treemapInfo) {
+            if (!error && treemapInfo) {
+                if (treemapInfo.treemap)
+                    treemapInfo.treemap = decodeColumnar(treemapInfo.treemap);
+
+                if (treemapInfo.treemaps) {
+                    for (var key in treemapInfo.treemaps) {
+                        if (treemapInfo.treemaps.hasOwnProperty(key))
+                            treemapInfo.treemaps[key] = decodeColumnar(treemapInfo.treemaps[key]);
+                    }
+                }
+            }
+            callback(error, treemapInfo);
+        };
+
+        if (/[?&]format=cbor(&|$)/.test(url)) {
+            d3.xhr(url)
+                .responseType('arraybuffer')
+                .response(function (request) {
+                    return decodeCbor(request.response);
+                })
+                .get(onLoad);
+        }
+        else {
+            d3.json(url, onLoad);
+        }
+    };
+
+    var decodeColumnar = function (columnar) {
+        if (!columnar || !columnar.strings)
+            return columnar;
+
+        var str = function (column, i) {
+            var id = columnar[column][i];
+            return (id >= 0) ? columnar.strings[id] : null;
+        };
+
+        var nodes = [];
+        for (var i = 0; i < columnar.parent.length; i++) {
+            var node = {
+                originalColumn: str('originalColumn', i),
+                column: str('column', i),
+                name: str('name', i),
+                isEmpty: (columnar.isEmpty[i] === 1)
+            };
+
+            ['suffix', 'color', 'code'].forEach(function (column) {
+                var value = str(column, i);
+                if (value !== null)
+                    node[column] = value;
+            });
+
+            ['sizeA', 'sizeB', 'delta'].forEach(function (column) {
+                if (columnar[column] && (columnar[column][i] !== null))
+                    node[column] = columnar[column][i];
+            });
+
+            if (columnar.size[i] !== null)
+                node.size = columnar.size[i];
+            else
+                node.children = [];
+
+            nodes.push(node);
+            if (columnar.parent[i] >= 0)
+                nodes[columnar.parent[i]].children.push(node);
+        }
+
+        return nodes[0];
+    };
+
+    // Decodes the subset of CBOR (RFC 7049) written by the server.
+    var decodeCbor = function (buffer) {
+        var view = new DataView(buffer), offset = 0;
+        var BREAK = {};
+
+        var readArgument = function (info) {
+            var value;
+            if (info < 24) return info;
+            switch (info) {
+                case 24: value = view.getUint8(offset); offset += 1; return value;
+                case 25: value = view.getUint16(offset); offset += 2; return value;
+                case 26: value = view.getUint32(offset); offset += 4; return value;
+                case 27:
+                    value = view.getUint32(offset) * 4294967296 + view.getUint32(offset + 4);
+                    offset += 8;
+                    return value;
+                case 31: return -1;
+            }
+            throw new Error('Invalid CBOR');
+        };
+
+        var readString = function (length) {
+            var bytes = new Uint8Array(buffer, offset, length);
+            offset += length;
+            var encoded = '';
+            for (var i = 0; i < bytes.length; i++)
+                encoded += '%' + ('0' + bytes[i].toString(16)).slice(-2);
+            return decodeURIComponent(encoded);
+        };
+
+        var readItem = function () {
+            var initial = view.getUint8(offset++);
+            var type = initial >> 5, info = initial & 0x1f;
+            var result, item;
+
+            if (initial === 0xff) return BREAK;
+            if (initial === 0xf4) return false;
+            if (initial === 0xf5) return true;
+            if ((initial === 0xf6) || (initial === 0xf7)) return null;
+            if (initial === 0xfa) { result = view.getFloat32(offset); offset += 4; return result; }
+            if (initial === 0xfb) { result = view.getFloat64(offset); offset += 8; return result; }
+
+            var argument = readArgument(info);
+            switch (type) {
+                case 0:
+                    return argument;
+                case 1:
+                    return -1 - argument;
+                case 3:
+                    return readString(argument);
+                case 4:
+                    result = [];
+                    if (argument < 0) {
+                        while ((item = readItem()) !== BREAK)
+                            result.push(item);
+                    }
+                    else {
+                        while (result.length < argument)
+                            result.push(readItem());
+                    }
+                    return result;
+                case 5:
+                    result = {};
+                    for (var i = 0; (argument < 0) || (i < argument); i++) {
+                        item = readItem();
+                        if (item === BREAK) break;
+                        result[item] = readItem();
+                    }
+                    return result;
+            }
+            throw new Error('Unsupported CBOR');
+        };
+
+        return readItem();
+    };
+
     var setUpLegend = function (data) {
         var valueWidth = width / data.length;
         legend.selectAll("*:not(.back)").remove();
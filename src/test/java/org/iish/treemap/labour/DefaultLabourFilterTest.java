@@ -0,0 +1,139 @@
+package org.iish.treemap.labour;
+
+import com.google.inject.Guice;
+import org.iish.treemap.config.Config;
+import org.iish.treemap.model.tabular.FilteredTabularData;
+import org.iish.treemap.model.tabular.TabularData;
+import org.iish.treemap.util.Utils;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the parallel default labour filter is deterministic:
+ * it always keeps the same rows as a sequential scan, also when years tie for the closest year of a time period.
+ */
+public class DefaultLabourFilterTest {
+    private static final String YEAR = "year";
+    private static final String COUNTRY = "country";
+    private static final int RUNS = 50;
+
+    /**
+     * Runs the parallel filter repeatedly on a dataset with many ties and compares it to the sequential reference.
+     *
+     * @throws Exception On failure to run the filter in the pool.
+     */
+    @Test
+    public void filterIsDeterministicWithTies() throws Exception {
+        TimePeriods timePeriods = createTimePeriods();
+        TabularData data = generate(new Random(42), 200000, 40);
+        DefaultLabourFilter filter = new DefaultLabourFilter(YEAR, COUNTRY, timePeriods);
+        List<Integer> expected = filterSequentially(data, timePeriods.getTimePeriods());
+
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            for (int i = 0; i < RUNS; i++) {
+                TabularData filtered = pool.submit(() -> filter.filter(data)).get();
+                assertEquals("Run " + i, expected, ((FilteredTabularData) filtered).getFilteredRows());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Creates the time periods, each with years at the same distance on both sides of the time period.
+     *
+     * @return The time periods.
+     */
+    private static TimePeriods createTimePeriods() {
+        Config config = new Config();
+        config.labour = new Config.Data();
+        config.labour.xlsx = new Config.Xlsx();
+        config.labour.xlsx.columns = new Config.XlsColumns();
+        config.labour.xlsx.columns.year = YEAR;
+        config.timePeriods = new ArrayList<>();
+        for (int timePeriod = 1500; timePeriod <= 2000; timePeriod += 100) {
+            Config.TimePeriod period = new Config.TimePeriod();
+            period.timePeriod = timePeriod;
+            period.minYear = timePeriod - 50;
+            period.maxYear = timePeriod + 50;
+            config.timePeriods.add(period);
+        }
+
+        return Guice.createInjector(binder -> binder.bind(Config.class).toInstance(config))
+                .getInstance(TimePeriods.class);
+    }
+
+    /**
+     * Generates a dataset with few distinct years around each time period, so that most countries have
+     * two years at the same distance of a time period, and with some rows without a valid year.
+     *
+     * @param random    The random generator.
+     * @param rows      The number of rows.
+     * @param countries The number of countries.
+     * @return The dataset.
+     */
+    private static TabularData generate(Random random, int rows, int countries) {
+        Map<String, Integer> headers = new HashMap<>();
+        headers.put(YEAR, 0);
+        headers.put(COUNTRY, 1);
+
+        int[] offsets = {-40, -20, -10, 10, 20, 40};
+        List<String[]> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String country = "C" + random.nextInt(countries);
+            int timePeriod = 1500 + 100 * random.nextInt(6);
+            String year = (random.nextInt(100) == 0)
+                    ? "NA" : String.valueOf(timePeriod + offsets[random.nextInt(offsets.length)]);
+            data.add(new String[]{year, country});
+        }
+
+        return new TabularData(headers, data);
+    }
+
+    /**
+     * Determines the rows to keep with a single sequential scan: for each country and each time period,
+     * the closest year within the time period wins, and of years at the same distance the year seen first.
+     *
+     * @param data    The dataset.
+     * @param periods The time periods.
+     * @return The indexes of the rows to keep, in order.
+     */
+    private static List<Integer> filterSequentially(TabularData data, List<TimePeriod> periods) {
+        Map<String, Integer[]> closestYears = new HashMap<>();
+        for (int row = 0; row < data.getSize(); row++) {
+            Integer year = Utils.getInteger(data.getValue(YEAR, row));
+            if (year == null)
+                continue;
+
+            Integer[] closest = closestYears.computeIfAbsent(data.getValue(COUNTRY, row),
+                    country -> new Integer[periods.size()]);
+            for (int i = 0; i < periods.size(); i++) {
+                int timePeriod = periods.get(i).getTimePeriod();
+                if ((closest[i] == null) || (Math.abs(timePeriod - year) < Math.abs(timePeriod - closest[i])))
+                    closest[i] = year;
+            }
+        }
+
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < data.getSize(); row++) {
+            Integer year = Utils.getInteger(data.getValue(YEAR, row));
+            Integer[] closest = closestYears.get(data.getValue(COUNTRY, row));
+            if ((year == null) || (closest == null))
+                continue;
+
+            for (int i = 0; i < periods.size(); i++) {
+                if (year.equals(closest[i]) && periods.get(i).isWithinTimePeriod(year)) {
+                    rows.add(row);
+                    break;
+                }
+            }
+        }
+        return rows;
+    }
+}